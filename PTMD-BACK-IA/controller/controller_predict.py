@@ -1,6 +1,7 @@
 from fastapi import APIRouter, File, UploadFile, HTTPException
 from fastapi.responses import JSONResponse
 from PIL import Image
+from typing import List
 import io
 import numpy as np
 import service.predict
@@ -20,4 +21,22 @@ async def predict(file: UploadFile = File(...)):
         content = await service.predict.diagnostic(img_array)
         return JSONResponse(content)
     except Exception as e:
-        raise HTTPException(status_code=500, detail=str(e))
\ No newline at end of file
+        raise HTTPException(status_code=500, detail=str(e))
+
+@router.post("/batch")
+async def predict_batch(files: List[UploadFile] = File(...)):
+    for file in files:
+        if not file.content_type.startswith('image/'):
+            raise HTTPException(status_code=400, detail="File provided is not an image")
+
+    try:
+        img_arrays = []
+        for file in files:
+            contents = await file.read()
+            image = Image.open(io.BytesIO(contents)).convert("RGB")
+            img_arrays.append(np.array(image))
+
+        content = await service.predict.diagnostic_batch(img_arrays)
+        return JSONResponse({"results": content})
+    except Exception as e:
+        raise HTTPException(status_code=500, detail=str(e))
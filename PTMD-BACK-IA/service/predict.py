@@ -59,4 +59,50 @@ async def diagnostic(img_array):
 
     except Exception as e:
         logger.error(f"Erro: {e}")
-        return {"predictions": [], "error": str(e)}
\ No newline at end of file
+        return {"predictions": [], "error": str(e)}
+
+
+async def diagnostic_batch(img_arrays):
+    """Classifica várias imagens numa única chamada a cada modelo.
+
+    Retorna uma resposta por imagem, na mesma ordem e no mesmo formato de diagnostic().
+    """
+    if not img_arrays:
+        return []
+
+    try:
+        classes = ["Normal", "Anormal"]
+        classesMulti = ["aom", "csom", "earwax", "ExternalEarInfections", "tympanoskleros"]
+
+        responses = []
+        anormais = []
+        for index, result in enumerate(model(img_arrays)):
+            class_id = result.probs.top1
+            probabilities = result.probs.data.tolist()
+            responses.append({"predictions": [{
+                "class": classes[class_id],
+                "Probabilidade": float(f"{probabilities[class_id]:.4f}"),
+                "MultClass": "",
+                "ProbabilidadeMultClass": ""}]})
+            if classes[class_id] == classes[1]:
+                anormais.append(index)
+
+        # O modelo multiclasse roda uma vez só, com todas as imagens anormais do lote
+        if anormais:
+            resultsMulti = modelMulti([img_arrays[index] for index in anormais])
+            for index, result in zip(anormais, resultsMulti):
+                class_id_multi = result.probs.top1
+                probabilitiesMultClass = result.probs.data.tolist()
+                prediction = responses[index]["predictions"][0]
+                responses[index] = {"predictions": [{
+                    "Class": prediction["class"],
+                    "Probabilidade": prediction["Probabilidade"],
+                    "MultClass": classesMulti[class_id_multi],
+                    "ProbabilidadeMultClass": float(f"{probabilitiesMultClass[class_id_multi]:.4f}")
+                }]}
+
+        return responses
+
+    except Exception as e:
+        logger.error(f"Erro: {e}")
+        return [{"predictions": [], "error": str(e)} for _ in img_arrays]
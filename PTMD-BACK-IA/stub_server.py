@@ -0,0 +1,59 @@
+"""Servidor de IA falso para testar o backend sem carregar os modelos YOLO.
+
+Responde /predict e /predict/batch no mesmo formato do serviço real, com atraso
+e taxa de erro configuráveis por variáveis de ambiente:
+
+    STUB_DELAY_MS=2000 STUB_ERROR_RATE=0.2 python stub_server.py
+
+STUB_BATCH=0 desliga o endpoint de lote (responde 404) para testar o fallback.
+"""
+import asyncio
+import os
+import random
+from typing import List
+
+import uvicorn
+from fastapi import FastAPI, File, HTTPException, UploadFile
+
+DELAY_MS = int(os.getenv("STUB_DELAY_MS", "0"))
+JITTER_MS = int(os.getenv("STUB_JITTER_MS", "0"))
+ERROR_RATE = float(os.getenv("STUB_ERROR_RATE", "0"))
+BATCH_ENABLED = os.getenv("STUB_BATCH", "1") == "1"
+PORT = int(os.getenv("STUB_PORT", "8081"))
+
+app = FastAPI()
+
+
+async def simulate():
+    await asyncio.sleep((DELAY_MS + random.randint(0, JITTER_MS)) / 1000)
+    if random.random() < ERROR_RATE:
+        raise HTTPException(status_code=500, detail="Erro simulado pelo stub")
+
+
+def fake_prediction():
+    return {"predictions": [{
+        "class": "Normal",
+        "Probabilidade": 0.9876,
+        "MultClass": "",
+        "ProbabilidadeMultClass": ""}]}
+
+
+@app.post("/predict")
+async def predict(file: UploadFile = File(...)):
+    await file.read()
+    await simulate()
+    return fake_prediction()
+
+
+@app.post("/predict/batch")
+async def predict_batch(files: List[UploadFile] = File(...)):
+    if not BATCH_ENABLED:
+        raise HTTPException(status_code=404, detail="Not Found")
+    for file in files:
+        await file.read()
+    await simulate()
+    return {"results": [fake_prediction() for _ in files]}
+
+
+if __name__ == "__main__":
+    uvicorn.run(app, host="0.0.0.0", port=PORT)
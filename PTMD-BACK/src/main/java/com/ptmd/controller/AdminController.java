@@ -1,8 +1,13 @@
 package com.ptmd.controller;
 
+import com.ptmd.dto.AgreementAnalyticsResponse;
 import com.ptmd.dto.ChangePasswordRequest;
 import com.ptmd.dto.DashboardResponse;
+import com.ptmd.dto.ShardExportResponse;
 import com.ptmd.service.AdminService;
+import com.ptmd.service.AgreementAnalyticsService;
+import com.ptmd.service.DatasetExportService;
+import com.ptmd.service.ShardExportService;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
@@ -10,15 +15,22 @@ import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ContentDisposition;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.WebAsyncTask;
 
-import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
 
 @RestController
 @RequestMapping("/api/admin")
@@ -30,6 +42,19 @@ public class AdminController {
     @Autowired
     private AdminService adminService;
 
+    @Autowired
+    private AgreementAnalyticsService agreementAnalyticsService;
+
+    @Autowired
+    private DatasetExportService datasetExportService;
+
+    @Autowired
+    private ShardExportService shardExportService;
+
+    // Tempo máximo da resposta em stream do backup (-1 = sem limite; exportações grandes levam vários minutos)
+    @Value("${app.export.stream-timeout-ms:-1}")
+    private long streamTimeoutMs;
+
     @Operation(summary = "Dashboard", description = "Retorna estatísticas do sistema: total de imagens, consultas e pacientes")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Estatísticas retornadas com sucesso",
@@ -41,6 +66,27 @@ public class AdminController {
         return ResponseEntity.ok(dashboard);
     }
 
+    @Operation(summary = "Concordância IA x médico", description = "Matriz de confusão entre o diagnóstico da IA e o diagnóstico " +
+            "final do médico, com precisão e recall por diagnóstico e acurácia por período (day, week ou month). " +
+            "level=images usa as confirmações por imagem; level=consultations, as confirmações por consulta")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Análise retornada com sucesso",
+                    content = @Content(schema = @Schema(implementation = AgreementAnalyticsResponse.class))),
+            @ApiResponse(responseCode = "400", description = "Período, agrupamento ou nível inválido")
+    })
+    @GetMapping("/analytics/agreement")
+    public ResponseEntity<?> getAgreement(
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(defaultValue = "day") String bucket,
+            @RequestParam(defaultValue = "images") String level) {
+        try {
+            return ResponseEntity.ok(agreementAnalyticsService.getAgreement(from, to, bucket, level));
+        } catch (RuntimeException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
     @Operation(summary = "Alterar senha", description = "Permite ao administrador alterar sua própria senha")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Senha alterada com sucesso"),
@@ -56,31 +102,89 @@ public class AdminController {
         }
     }
 
-    @Operation(summary = "Download database", description = "Gera e retorna um arquivo ZIP contendo imagens de consultas confirmadas, renomeadas com ID da imagem, ID do paciente e diagnóstico da IA")
+    @Operation(summary = "Download database", description = "Gera e retorna um arquivo ZIP contendo imagens de consultas confirmadas, renomeadas com ID da imagem, ID do paciente e diagnóstico da IA. " +
+            "O manifest.json do ZIP traz o watermark da exportação; enviando-o em 'since', a próxima exportação contém só as imagens confirmadas ou reclassificadas depois dele")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Arquivo ZIP gerado com sucesso",
                     content = @Content(mediaType = "application/zip")),
-            @ApiResponse(responseCode = "400", description = "Nenhuma imagem com diagnóstico confirmado encontrada"),
+            @ApiResponse(responseCode = "400", description = "Nenhuma imagem com diagnóstico confirmado encontrada ou watermark inválido"),
             @ApiResponse(responseCode = "500", description = "Erro ao gerar backup")
     })
     @GetMapping("/backup")
-    public ResponseEntity<?> downloadBackup() {
+    public WebAsyncTask<ResponseEntity<?>> downloadBackup(@RequestParam(required = false) String since,
+                                                          HttpServletResponse response) {
+        // Roda numa tarefa assíncrona com o tempo máximo próprio do backup; o padrão das
+        // outras requisições assíncronas continua valendo para elas
+        return new WebAsyncTask<>(streamTimeoutMs, () -> {
+            DatasetExportService.ExportWatermark watermark;
+            try {
+                watermark = datasetExportService.parseWatermark(since);
+            } catch (RuntimeException e) {
+                return ResponseEntity.badRequest()
+                        .body("{\"error\":\"" + e.getMessage() + "\"}");
+            }
+            if (watermark == null && !datasetExportService.hasConfirmedImages()) {
+                return ResponseEntity.badRequest()
+                        .body("{\"error\":\"Nenhuma imagem com diagnóstico confirmado pelo médico encontrada\"}");
+            }
+
+            // O ZIP é escrito direto na resposta enquanto é gerado, sem Content-Length
+            response.setContentType(MediaType.APPLICATION_OCTET_STREAM_VALUE);
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.formData().name("attachment")
+                    .filename(watermark == null ? "ptmd_database.zip" : "ptmd_database_delta.zip").build().toString());
+            datasetExportService.writeBackup(response.getOutputStream(), watermark);
+            response.flushBuffer();
+            return null;
+        });
+    }
+
+    @Operation(summary = "Exportar dataset em shards", description = "Inicia em segundo plano uma exportação no formato WebDataset: " +
+            "shards tar de tamanho fixo com pares imagem + JSON de rótulos e um index.json. Aceita 'since' (watermark) para exportação incremental")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "202", description = "Exportação iniciada",
+                    content = @Content(schema = @Schema(implementation = ShardExportResponse.class))),
+            @ApiResponse(responseCode = "400", description = "Watermark inválido ou exportação já em andamento")
+    })
+    @PostMapping("/export/shards")
+    public ResponseEntity<?> startShardExport(@RequestParam(required = false) String since) {
         try {
-            byte[] zipBytes = adminService.generateBackup();
+            ShardExportResponse export = shardExportService.start(datasetExportService.parseWatermark(since));
+            return ResponseEntity.status(HttpStatus.ACCEPTED)
+                    .header(HttpHeaders.LOCATION, "/api/admin/export/shards/" + export.id())
+                    .body(export);
+        } catch (RuntimeException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
 
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
-            headers.setContentDispositionFormData("attachment", "ptmd_database.zip");
-            headers.setContentLength(zipBytes.length);
+    @Operation(summary = "Andamento da exportação em shards", description = "Retorna o andamento da exportação ou, se concluída, o índice com a lista de shards")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Exportação encontrada",
+                    content = @Content(schema = @Schema(implementation = ShardExportResponse.class))),
+            @ApiResponse(responseCode = "404", description = "Exportação não encontrada")
+    })
+    @GetMapping("/export/shards/{id}")
+    public ResponseEntity<?> getShardExport(@PathVariable String id) {
+        try {
+            return shardExportService.getExport(id)
+                    .<ResponseEntity<?>>map(ResponseEntity::ok)
+                    .orElse(ResponseEntity.notFound().build());
+        } catch (RuntimeException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
 
-            return new ResponseEntity<>(zipBytes, headers, HttpStatus.OK);
-        } catch (IOException e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body("Erro ao gerar backup: " + e.getMessage());
+    @Operation(summary = "Download de shard", description = "Baixa um shard tar de uma exportação concluída")
+    @GetMapping("/export/shards/{id}/{file:.+}")
+    public ResponseEntity<?> downloadShard(@PathVariable String id, @PathVariable String file) {
+        try {
+            Path shard = shardExportService.getShard(id, file);
+            return ResponseEntity.ok()
+                    .contentType(MediaType.parseMediaType("application/x-tar"))
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + file + "\"")
+                    .body(new FileSystemResource(shard));
         } catch (RuntimeException e) {
-            return ResponseEntity.badRequest()
-                    .body("{\"error\":\"" + e.getMessage() + "\"}");
+            return ResponseEntity.notFound().build();
         }
     }
 }
-
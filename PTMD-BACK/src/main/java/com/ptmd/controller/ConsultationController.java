@@ -2,8 +2,11 @@ package com.ptmd.controller;
 
 import com.ptmd.dto.ConfirmDiagnosisRequest;
 import com.ptmd.dto.ConfirmImageDiagnosisRequest;
+import com.ptmd.dto.ConsultationPageResponse;
 import com.ptmd.dto.ConsultationRequest;
 import com.ptmd.dto.ConsultationResponse;
+import com.ptmd.dto.ConsultationStatusResponse;
+import com.ptmd.dto.ConsultationSubmissionResponse;
 import com.ptmd.dto.ImageResponse;
 import com.ptmd.service.ConsultationService;
 import io.swagger.v3.oas.annotations.Operation;
@@ -15,12 +18,12 @@ import io.swagger.v3.oas.annotations.security.SecurityRequirement;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.io.IOException;
-import java.util.List;
 
 @RestController
 @RequestMapping("/api/medico/consultations")
@@ -33,16 +36,28 @@ public class ConsultationController {
     private ConsultationService consultationService;
 
     @Operation(summary = "Criar consulta", description = "Cria uma nova consulta com paciente e múltiplas imagens. " +
-            "Todas as imagens são enviadas para o microsserviço Python de IA que retorna um diagnóstico preliminar.")
+            "Todas as imagens são enviadas para o microsserviço Python de IA que retorna um diagnóstico preliminar. " +
+            "Com async=true a resposta é 202 logo após salvar as imagens, e a análise da IA segue em segundo plano; " +
+            "o andamento é consultado em /{id}/status.")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "201", description = "Consulta criada com sucesso",
                     content = @Content(schema = @Schema(implementation = ConsultationResponse.class))),
+            @ApiResponse(responseCode = "202", description = "Consulta recebida; análise da IA em andamento (async=true)",
+                    content = @Content(schema = @Schema(implementation = ConsultationSubmissionResponse.class))),
             @ApiResponse(responseCode = "400", description = "Dados inválidos"),
             @ApiResponse(responseCode = "500", description = "Erro ao processar imagem ou integrar com IA")
     })
     @PostMapping
-    public ResponseEntity<?> createConsultation(@Valid @ModelAttribute ConsultationRequest request) {
+    public ResponseEntity<?> createConsultation(
+            @Valid @ModelAttribute ConsultationRequest request,
+            @RequestParam(defaultValue = "false") boolean async) {
         try {
+            if (async) {
+                ConsultationSubmissionResponse response = consultationService.submitConsultation(request);
+                return ResponseEntity.status(HttpStatus.ACCEPTED)
+                        .header(HttpHeaders.LOCATION, response.getStatusUrl())
+                        .body(response);
+            }
             ConsultationResponse response = consultationService.createConsultation(request);
             return ResponseEntity.status(HttpStatus.CREATED).body(response);
         } catch (IOException e) {
@@ -53,6 +68,22 @@ public class ConsultationController {
         }
     }
 
+    @Operation(summary = "Status da análise", description = "Retorna o andamento da análise da IA de uma consulta enviada com async=true")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "Status retornado com sucesso",
+                    content = @Content(schema = @Schema(implementation = ConsultationStatusResponse.class))),
+            @ApiResponse(responseCode = "400", description = "Consulta não encontrada ou sem permissão")
+    })
+    @GetMapping("/{id}/status")
+    public ResponseEntity<?> getConsultationStatus(@PathVariable Long id) {
+        try {
+            ConsultationStatusResponse response = consultationService.getConsultationStatus(id);
+            return ResponseEntity.ok(response);
+        } catch (RuntimeException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
     @Operation(summary = "Confirmar diagnóstico", description = "Confirma o diagnóstico da IA ou permite que o médico escolha outro diagnóstico manualmente")
     @ApiResponses(value = {
             @ApiResponse(responseCode = "200", description = "Diagnóstico confirmado",
@@ -71,17 +102,26 @@ public class ConsultationController {
         }
     }
 
-    @Operation(summary = "Listar minhas consultas", description = "Retorna todas as consultas do médico logado, ordenadas por data (mais recente primeiro). " +
+    @Operation(summary = "Listar minhas consultas", description = "Retorna as consultas do médico logado, ordenadas por data (mais recente primeiro), " +
+            "em páginas de até 'size' itens. Para a próxima página, envie o 'nextCursor' recebido como 'cursor'. " +
             "Suporta filtros opcionais por nome e CPF do paciente.")
     @ApiResponses(value = {
-            @ApiResponse(responseCode = "200", description = "Lista de consultas retornada com sucesso")
+            @ApiResponse(responseCode = "200", description = "Página de consultas retornada com sucesso",
+                    content = @Content(schema = @Schema(implementation = ConsultationPageResponse.class))),
+            @ApiResponse(responseCode = "400", description = "Cursor ou tamanho de página inválido")
     })
     @GetMapping
-    public ResponseEntity<List<ConsultationResponse>> getMyConsultations(
+    public ResponseEntity<?> getMyConsultations(
             @RequestParam(required = false) String nome,
-            @RequestParam(required = false) String cpf) {
-        List<ConsultationResponse> consultations = consultationService.getMyConsultations(nome, cpf);
-        return ResponseEntity.ok(consultations);
+            @RequestParam(required = false) String cpf,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int size) {
+        try {
+            ConsultationPageResponse page = consultationService.getMyConsultations(nome, cpf, cursor, size);
+            return ResponseEntity.ok(page);
+        } catch (RuntimeException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
     }
 
     @Operation(summary = "Obter consulta por ID", description = "Retorna os detalhes completos de uma consulta, incluindo todas as imagens e seus diagnósticos")
@@ -1,48 +1,83 @@
 package com.ptmd.controller;
 
 import com.ptmd.service.FileStorageService;
+import com.ptmd.service.ThumbnailService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamResource;
 import org.springframework.core.io.Resource;
 import org.springframework.core.io.UrlResource;
+import org.springframework.core.io.support.ResourceRegion;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 @RestController
 @RequestMapping("/api/files")
 @CrossOrigin(origins = "*")
 public class FileController {
 
+    // Nomes endereçados por conteúdo nunca mudam de conteúdo
+    private static final CacheControl IMMUTABLE = CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().immutable();
+    // Uploads antigos (nome UUID) e caminhos arbitrários: cache curto, revalidado pela ETag
+    private static final CacheControl REVALIDATE = CacheControl.maxAge(1, TimeUnit.DAYS).cachePublic();
+
+    // Atributos de requisição do sendfile do Tomcat (o mesmo mecanismo do DefaultServlet)
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
     @Autowired
     private FileStorageService fileStorageService;
 
+    @Autowired
+    private ThumbnailService thumbnailService;
+
+    @Value("${app.files.sendfile.enabled:true}")
+    private boolean sendfileEnabled;
+
+    // Abaixo disso a cópia pelo conversor do Spring custa menos que montar o sendfile
+    @Value("${app.files.sendfile.min-bytes:49152}")
+    private long sendfileMinBytes;
+
+    // Sem sendfile (conector TLS, por exemplo), envia pelo WriteListener em vez do conversor
+    // do Spring: não prende uma thread por cliente lento, mas gasta mais CPU por GB e entrega
+    // menos downloads/s (ver FileDownloadBenchmark)
+    @Value("${app.files.non-blocking-fallback:false}")
+    private boolean nonBlockingFallback;
+
+    // Tempo máximo de um download enviado pelo WriteListener
+    @Value("${app.files.async-timeout-ms:600000}")
+    private long asyncTimeoutMs;
+
     @GetMapping("/**")
-    public ResponseEntity<Resource> getFile(@RequestParam String path) {
+    public ResponseEntity<?> getFile(@RequestParam String path, ServletWebRequest webRequest,
+                                     @RequestHeader HttpHeaders requestHeaders) {
         try {
-            Path filePath = fileStorageService.loadFile(path);
-            Resource resource = new UrlResource(filePath.toUri());
-
-            if (resource.exists() && resource.isReadable()) {
-                String contentType = "application/octet-stream";
-                try {
-                    String filename = filePath.getFileName().toString().toLowerCase();
-                    if (filename.endsWith(".jpg") || filename.endsWith(".jpeg")) {
-                        contentType = "image/jpeg";
-                    } else if (filename.endsWith(".png")) {
-                        contentType = "image/png";
-                    }
-                } catch (Exception e) {
-                    // Ignora erro de detecção de tipo
-                }
+            // Caminho gravado na imagem: arquivo em disco ou blob do pack (pack:<sha256>.ext)
+            Resource resource = fileStorageService.loadResource(path);
 
-                return ResponseEntity.ok()
-                        .contentType(MediaType.parseMediaType(contentType))
-                        .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + filePath.getFileName() + "\"")
-                        .body(resource);
+            if (resource != null) {
+                return serve(resource, resource.getFilename(), contentType(resource.getFilename()),
+                        fileStorageService.contentHashOf(resource.getFilename()), webRequest, requestHeaders);
             } else {
                 return ResponseEntity.notFound().build();
             }
@@ -52,80 +87,240 @@ public class FileController {
     }
 
     @GetMapping("/by-name/{filename:.+}")
-    public ResponseEntity<Resource> getFileByName(@PathVariable String filename) {
+    public ResponseEntity<?> getFileByName(@PathVariable String filename, ServletWebRequest webRequest,
+                                           @RequestHeader HttpHeaders requestHeaders) {
         try {
-            // Extrair apenas o nome do arquivo (sem diretórios)
-            String actualFilename = filename;
-            if (filename.contains("/")) {
-                actualFilename = filename.substring(filename.lastIndexOf("/") + 1);
+            String actualFilename = actualFilename(filename);
+            Resource resource = findByName(filename);
+
+            if (resource != null && resource.exists() && resource.isReadable()) {
+                return serve(resource, actualFilename, contentType(actualFilename),
+                        fileStorageService.contentHashOf(actualFilename), webRequest, requestHeaders);
+            } else {
+                return ResponseEntity.notFound().build();
             }
-            
-            // Usar o FileStorageService para carregar o arquivo
-            // O filePath salvo no banco pode ser o caminho completo ou apenas o nome
-            // Tentamos primeiro com o caminho completo, depois apenas o nome
-            Path filePath = null;
-            Resource resource = null;
-            
-            // Tentar com o caminho completo primeiro (se filename contém caminho)
-            if (filename.contains("/") || filename.contains("\\")) {
-                try {
-                    filePath = fileStorageService.loadFile(filename);
-                    resource = new UrlResource(filePath.toUri());
-                    if (!resource.exists() || !resource.isReadable()) {
-                        resource = null;
-                    }
-                } catch (Exception e) {
-                    // Continua para tentar apenas o nome
-                }
+        } catch (Exception e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    /**
+     * Miniatura JPEG da imagem, com o maior lado em {@code size} pixels (um dos tamanhos de
+     * app.thumbnails.sizes). O nome é o mesmo de /by-name; imagens sem miniatura ainda
+     * têm a sua gerada nesta requisição.
+     */
+    @GetMapping("/thumbnails/{size}/{filename:.+}")
+    public ResponseEntity<?> getThumbnail(@PathVariable int size, @PathVariable String filename,
+                                          ServletWebRequest webRequest, @RequestHeader HttpHeaders requestHeaders) {
+        if (!thumbnailService.isSupportedSize(size)) {
+            return ResponseEntity.badRequest().build();
+        }
+        try {
+            String actualFilename = actualFilename(filename);
+            Path thumbnail = thumbnailService.getThumbnail(actualFilename, size, () -> findByName(filename));
+            if (thumbnail == null) {
+                return ResponseEntity.notFound().build();
             }
-            
-            // Se não encontrou, tentar apenas com o nome do arquivo
-            if (resource == null) {
-                // Tentar diferentes caminhos possíveis
-                Path[] possiblePaths = {
-                    Paths.get("uploads", actualFilename),
-                    Paths.get("uploads/" + actualFilename),
-                    Paths.get("/app/uploads/" + actualFilename),
-                    Paths.get("/app/uploads", actualFilename)
-                };
-                
-                for (Path path : possiblePaths) {
-                    try {
-                        Resource testResource = new UrlResource(path.toUri());
-                        if (testResource.exists() && testResource.isReadable()) {
-                            resource = testResource;
-                            filePath = path;
-                            break;
-                        }
-                    } catch (Exception e) {
-                        // Continua tentando outros caminhos
-                    }
-                }
+            // A miniatura pode ser regenerada depois de sair do cache: a ETag vem do original, não do arquivo
+            String contentHash = fileStorageService.contentHashOf(actualFilename);
+            return serve(new FileSystemResource(thumbnail), thumbnail.getFileName().toString(), MediaType.IMAGE_JPEG,
+                    contentHash != null ? contentHash + "-" + size : null, webRequest, requestHeaders);
+        } catch (Exception e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    /**
+     * Monta a resposta de um arquivo com validadores e suporte a Range. A ETag é forte: o
+     * hash do conteúdo nos nomes endereçados por conteúdo (que nunca mudam, então podem ser
+     * guardados para sempre) e inode + mtime + tamanho nos demais. Responde 304 quando
+     * If-None-Match/If-Modified-Since batem, 206 para Range (respeitando If-Range) e 416 se
+     * o Range é impossível. Arquivos grandes, inteiros ou num só trecho, saem por
+     * {@link #transfer}; os demais são recortados pelo Spring a partir do Resource.
+     */
+    private ResponseEntity<?> serve(Resource resource, String filename, MediaType contentType, String contentHash,
+                                    ServletWebRequest webRequest, HttpHeaders requestHeaders) throws IOException {
+        String etag = contentHash != null ? "\"" + contentHash + "\"" : null;
+        long lastModified = -1;
+        if (resource.isFile()) {
+            BasicFileAttributes attributes = Files.readAttributes(resource.getFile().toPath(), BasicFileAttributes.class);
+            lastModified = attributes.lastModifiedTime().toMillis();
+            if (etag == null) {
+                etag = "\"" + Integer.toHexString(Objects.hashCode(attributes.fileKey())) + "-"
+                        + Long.toHexString(lastModified) + "-" + Long.toHexString(attributes.size()) + "\"";
             }
-            
-            if (resource != null && resource.exists() && resource.isReadable()) {
-                String contentType = "application/octet-stream";
+        }
+
+        // Grava ETag/Last-Modified na resposta e, se o cliente já tem esta versão, responde 304
+        if (webRequest.checkNotModified(etag, lastModified)) {
+            return null;
+        }
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(contentType);
+        headers.set(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + filename + "\"");
+        headers.setCacheControl(contentHash != null ? IMMUTABLE : REVALIDATE);
+
+        String range = requestHeaders.getFirst(HttpHeaders.RANGE);
+        boolean applyRange = range != null && ifRangeMatches(requestHeaders, etag, lastModified);
+        List<ResourceRegion> regions = null;
+        if (applyRange) {
+            try {
+                regions = HttpRange.toResourceRegions(HttpRange.parseRanges(range), resource);
+            } catch (IllegalArgumentException e) {
+                // O Spring responderia 416 mas ainda mandaria o arquivo inteiro no corpo
+                return ResponseEntity.status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                        .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                        .header(HttpHeaders.CONTENT_RANGE, "bytes */" + resource.contentLength())
+                        .build();
+            }
+        }
+
+        boolean zeroCopy = sendfileEnabled && (nonBlockingFallback
+                || Boolean.TRUE.equals(webRequest.getRequest().getAttribute(SENDFILE_SUPPORT)));
+        FileStorageService.BlobLocation location = zeroCopy ? fileStorageService.locate(resource) : null;
+        if (location != null && location.length() >= sendfileMinBytes && (regions == null || regions.size() == 1)) {
+            headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+            if (regions == null) {
+                return transfer(location, 0, location.length(), HttpStatus.OK, headers, webRequest);
+            }
+            ResourceRegion region = regions.get(0);
+            headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + region.getPosition() + "-"
+                    + (region.getPosition() + region.getCount() - 1) + "/" + location.length());
+            return transfer(location, region.getPosition(), region.getCount(), HttpStatus.PARTIAL_CONTENT,
+                    headers, webRequest);
+        }
+
+        if (range != null && !applyRange) {
+            // If-Range não bate: vai o arquivo inteiro. Como InputStreamResource, para o Spring
+            // não aplicar o Range por conta própria
+            headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+            headers.setContentLength(resource.contentLength());
+            return ResponseEntity.ok().headers(headers).body(new InputStreamResource(resource.getInputStream()));
+        }
+        return ResponseEntity.ok().headers(headers).body(resource);
+    }
+
+    /**
+     * Envia {@code count} bytes a partir de {@code position} dentro do blob sem passar pelo
+     * heap. No Tomcat com sendfile, a resposta só leva os cabeçalhos e os atributos
+     * org.apache.tomcat.sendfile.*: depois que a requisição termina, o conector manda o
+     * trecho do arquivo direto para o socket. Sem sendfile, só chega aqui com
+     * app.files.non-blocking-fallback, e o envio usa o I/O não bloqueante do Servlet
+     * ({@link FileRegionWriter}), para um cliente lento não prender nenhuma thread.
+     */
+    private ResponseEntity<?> transfer(FileStorageService.BlobLocation location, long position, long count,
+                                       HttpStatus status, HttpHeaders headers, ServletWebRequest webRequest)
+            throws IOException {
+        headers.setContentLength(count);
+        HttpServletRequest request = webRequest.getRequest();
+        if ("HEAD".equals(request.getMethod())) {
+            return ResponseEntity.status(status).headers(headers).build();
+        }
+
+        HttpServletResponse response = webRequest.getResponse();
+        response.setStatus(status.value());
+        headers.forEach((name, values) -> values.forEach(value -> response.addHeader(name, value)));
+
+        long start = location.offset() + position;
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, location.file().toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, start + count);
+            return null;
+        }
+
+        FileRegionWriter.start(request, response, location.file(), start, count, asyncTimeoutMs);
+        return null;
+    }
+
+    /**
+     * Sem If-Range o Range vale sempre; com ele, só se a ETag (comparação forte) ou a data
+     * de modificação forem as da versão atual.
+     */
+    private static boolean ifRangeMatches(HttpHeaders requestHeaders, String etag, long lastModified) {
+        String ifRange = requestHeaders.getFirst(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(etag);
+        }
+        try {
+            long date = requestHeaders.getFirstDate(HttpHeaders.IF_RANGE);
+            return lastModified >= 0 && date == lastModified / 1000 * 1000;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static MediaType contentType(String filename) {
+        String contentType = "application/octet-stream";
+        try {
+            String lowerFilename = filename.toLowerCase();
+            if (lowerFilename.endsWith(".jpg") || lowerFilename.endsWith(".jpeg")) {
+                contentType = "image/jpeg";
+            } else if (lowerFilename.endsWith(".png")) {
+                contentType = "image/png";
+            }
+        } catch (Exception e) {
+            // Ignora erro de detecção de tipo
+        }
+        return MediaType.parseMediaType(contentType);
+    }
+
+    private static String actualFilename(String filename) {
+        // Extrair apenas o nome do arquivo (sem diretórios)
+        if (filename.contains("/")) {
+            return filename.substring(filename.lastIndexOf("/") + 1);
+        }
+        return filename;
+    }
+
+    /**
+     * Localiza a imagem pelo nome: o filePath salvo no banco pode ser o caminho completo
+     * ou apenas o nome. Retorna null se não encontrar.
+     */
+    private Resource findByName(String filename) {
+        String actualFilename = actualFilename(filename);
+        Resource resource = null;
+
+        // Tentar com o caminho completo primeiro (se filename contém caminho)
+        if (filename.contains("/") || filename.contains("\\")) {
+            try {
+                resource = fileStorageService.loadResource(filename);
+            } catch (Exception e) {
+                // Continua para tentar apenas o nome
+            }
+        }
+
+        // Arquivos endereçados por conteúdo (<sha256>.ext) ficam no pack ou em subdiretórios ab/cd/
+        if (resource == null) {
+            resource = fileStorageService.loadBlobByName(actualFilename);
+        }
+
+        // Se não encontrou, tentar apenas com o nome do arquivo
+        if (resource == null) {
+            // Tentar diferentes caminhos possíveis
+            Path[] possiblePaths = {
+                Paths.get("uploads", actualFilename),
+                Paths.get("uploads/" + actualFilename),
+                Paths.get("/app/uploads/" + actualFilename),
+                Paths.get("/app/uploads", actualFilename)
+            };
+
+            for (Path path : possiblePaths) {
                 try {
-                    String lowerFilename = actualFilename.toLowerCase();
-                    if (lowerFilename.endsWith(".jpg") || lowerFilename.endsWith(".jpeg")) {
-                        contentType = "image/jpeg";
-                    } else if (lowerFilename.endsWith(".png")) {
-                        contentType = "image/png";
+                    Resource testResource = new UrlResource(path.toUri());
+                    if (testResource.exists() && testResource.isReadable()) {
+                        resource = testResource;
+                        break;
                     }
                 } catch (Exception e) {
-                    // Ignora erro de detecção de tipo
+                    // Continua tentando outros caminhos
                 }
-
-                return ResponseEntity.ok()
-                        .contentType(MediaType.parseMediaType(contentType))
-                        .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + actualFilename + "\"")
-                        .body(resource);
-            } else {
-                return ResponseEntity.notFound().build();
             }
-        } catch (Exception e) {
-            return ResponseEntity.notFound().build();
         }
+        return resource;
     }
 }
-
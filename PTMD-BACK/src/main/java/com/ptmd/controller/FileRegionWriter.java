@@ -0,0 +1,131 @@
+package com.ptmd.controller;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Envia um trecho de arquivo com o I/O não bloqueante do Servlet: escreve enquanto o
+ * socket aceita ({@link ServletOutputStream#isReady()}) e devolve a thread ao container
+ * quando o cliente não acompanha; o container chama {@link #onWritePossible()} de novo
+ * quando houver espaço. Nenhuma thread fica presa a um download lento.
+ */
+class FileRegionWriter implements WriteListener, AsyncListener {
+
+    private static final Logger log = LoggerFactory.getLogger(FileRegionWriter.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final AsyncContext async;
+    private final ServletOutputStream out;
+    private final FileChannel channel;
+    private final Path file;
+    private final long end;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private long position;
+    private boolean closed;
+
+    private FileRegionWriter(AsyncContext async, ServletOutputStream out, FileChannel channel, Path file,
+                             long start, long count) {
+        this.async = async;
+        this.out = out;
+        this.channel = channel;
+        this.file = file;
+        this.position = start;
+        this.end = start + count;
+    }
+
+    /**
+     * Inicia o processamento assíncrono e agenda o envio de {@code count} bytes de
+     * {@code file} a partir de {@code start}. Status e cabeçalhos já devem estar na resposta.
+     */
+    static void start(HttpServletRequest request, HttpServletResponse response, Path file, long start, long count,
+                      long timeoutMs) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            AsyncContext async = request.startAsync(request, response);
+            async.setTimeout(timeoutMs);
+            FileRegionWriter writer = new FileRegionWriter(async, response.getOutputStream(), channel, file,
+                    start, count);
+            async.addListener(writer);
+            writer.out.setWriteListener(writer);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void onWritePossible() throws IOException {
+        while (out.isReady()) {
+            if (position >= end) {
+                close();
+                async.complete();
+                return;
+            }
+            buffer.clear();
+            buffer.limit((int) Math.min(BUFFER_SIZE, end - position));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("Arquivo menor que o esperado: " + file);
+            }
+            out.write(buffer.array(), 0, read);
+            position += read;
+        }
+    }
+
+    @Override
+    public void onError(Throwable error) {
+        // Normalmente o cliente desconectou no meio do download
+        log.debug("Envio de {} interrompido: {}", file, error.getMessage());
+        close();
+        async.complete();
+    }
+
+    @Override
+    public void onTimeout(AsyncEvent event) {
+        log.warn("Envio de {} excedeu o tempo limite com {} bytes pendentes", file, end - position);
+        close();
+        async.complete();
+    }
+
+    @Override
+    public void onError(AsyncEvent event) {
+        close();
+        async.complete();
+    }
+
+    @Override
+    public void onComplete(AsyncEvent event) {
+        close();
+    }
+
+    @Override
+    public void onStartAsync(AsyncEvent event) {
+    }
+
+    private synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.debug("Erro ao fechar {}: {}", file, e.getMessage());
+        }
+    }
+}
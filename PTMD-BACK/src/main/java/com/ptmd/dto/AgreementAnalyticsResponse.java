@@ -0,0 +1,50 @@
+package com.ptmd.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Concordância entre o diagnóstico da IA e o diagnóstico final do médico no período.
+ * {@code confusionMatrix} é indexada por [diagnóstico da IA][diagnóstico do médico].
+ */
+@Data
+@AllArgsConstructor
+public class AgreementAnalyticsResponse {
+    private String level;
+    private String bucket;
+    private LocalDate from;
+    private LocalDate to;
+    private Long total;
+    private Long agreements;
+    private Double accuracy;
+    private List<String> labels;
+    private Map<String, Map<String, Long>> confusionMatrix;
+    private List<ClassMetrics> perClass;
+    private List<BucketSummary> buckets;
+
+    @Data
+    @AllArgsConstructor
+    public static class ClassMetrics {
+        private String label;
+        // Quantas vezes o médico confirmou essa classe
+        private Long support;
+        // Quantas vezes a IA previu essa classe
+        private Long predicted;
+        private Long truePositives;
+        private Double precision;
+        private Double recall;
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class BucketSummary {
+        private LocalDate start;
+        private Long total;
+        private Long agreements;
+        private Double accuracy;
+    }
+}
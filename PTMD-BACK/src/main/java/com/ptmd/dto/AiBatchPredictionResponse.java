@@ -0,0 +1,11 @@
+package com.ptmd.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class AiBatchPredictionResponse {
+    // Um resultado por arquivo, na mesma ordem do envio
+    private List<AiPredictionResponse> results;
+}
@@ -0,0 +1,17 @@
+package com.ptmd.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ConsultationPageResponse {
+    private List<ConsultationResponse> content;
+    // Token para a próxima página; null quando não há mais consultas
+    private String nextCursor;
+    private Boolean hasMore;
+}
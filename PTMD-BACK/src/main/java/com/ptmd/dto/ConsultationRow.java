@@ -0,0 +1,31 @@
+package com.ptmd.dto;
+
+import com.ptmd.entity.Patient;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Projeção somente-leitura de uma consulta com os dados do paciente, preenchida
+ * direto pela query (sem carregar entidades gerenciadas).
+ */
+@Data
+@AllArgsConstructor
+public class ConsultationRow {
+    private Long id;
+    private Long medicoId;
+    private String aiDiagnosis;
+    private Double confidence;
+    private String multClass;
+    private Double multClassConfidence;
+    private String finalDiagnosis;
+    private Boolean confirmed;
+    private LocalDateTime createdAt;
+    private Long patientId;
+    private String patientNome;
+    private String patientCpf;
+    private Patient.Sexo patientSexo;
+    private LocalDate patientDataNascimento;
+}
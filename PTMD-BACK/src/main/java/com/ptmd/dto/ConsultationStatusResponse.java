@@ -0,0 +1,18 @@
+package com.ptmd.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ConsultationStatusResponse {
+    private Long consultationId;
+    // PROCESSING, COMPLETED ou FAILED
+    private String status;
+    private Long totalImages;
+    private Long pendingImages;
+    private Long completedImages;
+    private Long failedImages;
+}
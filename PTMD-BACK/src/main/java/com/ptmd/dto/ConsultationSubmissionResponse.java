@@ -0,0 +1,14 @@
+package com.ptmd.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ConsultationSubmissionResponse {
+    private Long consultationId;
+    private String status;
+    private String statusUrl;
+}
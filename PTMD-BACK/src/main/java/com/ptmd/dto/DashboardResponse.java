@@ -3,11 +3,27 @@ package com.ptmd.dto;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
 @Data
 @AllArgsConstructor
 public class DashboardResponse {
     private Long totalImages;
     private Long totalConsultations;
     private Long totalPatients;
-}
+    private Long confirmedImages;
+    private Long pendingImages;
+    private Long confirmedConsultations;
+    private Map<String, Long> imagesByDiagnosis;
+    private List<DailyVolume> dailyVolumes;
 
+    @Data
+    @AllArgsConstructor
+    public static class DailyVolume {
+        private LocalDate date;
+        private Long images;
+        private Long consultations;
+    }
+}
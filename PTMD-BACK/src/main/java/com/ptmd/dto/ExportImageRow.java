@@ -0,0 +1,24 @@
+package com.ptmd.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * Linha da exportação do dataset: uma imagem confirmada com o paciente da consulta.
+ * Preenchida direto pela query, para a exportação não acumular entidades na sessão.
+ */
+@Data
+@AllArgsConstructor
+public class ExportImageRow {
+    private Long imageId;
+    private Long patientId;
+    private String fileName;
+    private String filePath;
+    private String contentType;
+    private String aiDiagnosis;
+    private String finalDiagnosis;
+    private LocalDateTime confirmedAt;
+    private LocalDateTime firstConfirmedAt;
+}
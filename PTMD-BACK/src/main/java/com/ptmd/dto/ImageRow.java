@@ -0,0 +1,28 @@
+package com.ptmd.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+/**
+ * Projeção somente-leitura de uma imagem, com o id da consulta para agrupar
+ * as imagens de várias consultas buscadas numa única query.
+ */
+@Data
+@AllArgsConstructor
+public class ImageRow {
+    private Long consultationId;
+    private Long id;
+    private String fileName;
+    private String filePath;
+    private Long fileSize;
+    private String contentType;
+    private String aiDiagnosis;
+    private Double confidence;
+    private String multClass;
+    private Double multClassConfidence;
+    private String finalDiagnosis;
+    private Boolean confirmed;
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,24 @@
+package com.ptmd.dto;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Andamento de uma exportação em shards tar. Quando concluída, é também o conteúdo
+ * do index.json gravado junto com os shards. Imutável: a thread da exportação publica
+ * uma nova instância ao terminar, em vez de alterar a que os pollers estão lendo.
+ *
+ * @param status    RUNNING, COMPLETED ou FAILED
+ * @param watermark watermark para a próxima exportação incremental
+ */
+public record ShardExportResponse(String id, String status, LocalDateTime startedAt, LocalDateTime finishedAt,
+                                  String since, String watermark, Long samples, Long bytes,
+                                  List<Shard> shards, String error) {
+
+    public ShardExportResponse {
+        shards = shards != null ? List.copyOf(shards) : List.of();
+    }
+
+    public record Shard(String file, Long samples, Long bytes, Long firstImageId, Long lastImageId) {
+    }
+}
@@ -9,7 +9,10 @@ import java.time.LocalDateTime;
 import java.util.List;
 
 @Entity
-@Table(name = "consultations")
+@Table(name = "consultations", indexes = {
+        // Serve a listagem paginada por (created_at, id) das consultas de um médico
+        @Index(name = "idx_consultations_medico_created", columnList = "medico_id, created_at, id")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -51,6 +54,10 @@ public class Consultation {
     @Column(name = "created_at")
     private LocalDateTime createdAt;
 
+    // Última confirmação que mudou o diagnóstico final
+    @Column(name = "confirmed_at")
+    private LocalDateTime confirmedAt;
+
     @PrePersist
     protected void onCreate() {
         createdAt = LocalDateTime.now();
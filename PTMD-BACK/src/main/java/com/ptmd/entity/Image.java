@@ -8,7 +8,11 @@ import lombok.NoArgsConstructor;
 import java.time.LocalDateTime;
 
 @Entity
-@Table(name = "images")
+@Table(name = "images", indexes = {
+        // Serve a exportação incremental, que percorre as imagens por (confirmed_at, id)
+        @Index(name = "idx_images_confirmed_at", columnList = "confirmed_at, id"),
+        @Index(name = "idx_images_content_hash", columnList = "content_hash")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -25,6 +29,10 @@ public class Image {
     @Column(name = "file_path", nullable = false)
     private String filePath;
 
+    // SHA-256 do arquivo (ver StoredBlob); vazio nas imagens salvas antes do armazenamento por conteúdo
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
     @Column(name = "file_name")
     private String fileName;
 
@@ -52,6 +60,13 @@ public class Image {
     @Column(name = "confirmed")
     private Boolean confirmed = false;
 
+    // Última confirmação que mudou o diagnóstico final
+    @Column(name = "confirmed_at")
+    private LocalDateTime confirmedAt;
+
+    @Column(name = "first_confirmed_at")
+    private LocalDateTime firstConfirmedAt;
+
     @Column(name = "created_at")
     private LocalDateTime createdAt;
 
@@ -0,0 +1,42 @@
+package com.ptmd.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "prediction_cache", indexes = {
+        @Index(name = "idx_prediction_cache_model_version", columnList = "model_version"),
+        // Serve a limpeza por idade
+        @Index(name = "idx_prediction_cache_created_at", columnList = "created_at")
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PredictionCacheEntry {
+
+    // {modelVersion}:{sha256}
+    @Id
+    @Column(name = "cache_key", length = 160)
+    private String cacheKey;
+
+    @Column(name = "content_hash", nullable = false, length = 64)
+    private String contentHash;
+
+    @Column(name = "model_version", nullable = false, length = 64)
+    private String modelVersion;
+
+    @Column(name = "response_json", nullable = false, columnDefinition = "TEXT")
+    private String responseJson;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt;
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+    }
+}
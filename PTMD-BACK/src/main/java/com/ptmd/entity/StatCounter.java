@@ -0,0 +1,33 @@
+package com.ptmd.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Contador mantido incrementalmente para o dashboard. {@code dimension} é vazio nos
+ * totais, o diagnóstico nos contadores por diagnóstico e a data (yyyy-MM-dd) nos diários.
+ */
+@Entity
+@Table(name = "stat_counters", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_stat_counters_name_dimension", columnNames = {"name", "dimension"})
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class StatCounter {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, length = 64)
+    private String name;
+
+    @Column(nullable = false, length = 64)
+    private String dimension;
+
+    @Column(name = "counter_value", nullable = false)
+    private Long value;
+}
@@ -0,0 +1,38 @@
+package com.ptmd.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Arquivo de imagem salvo pelo {@code FileStorageService}, identificado pelo SHA-256 do
+ * conteúdo. {@code refCount} é o número de imagens que apontam para ele; blobs sem
+ * referência são apagados pela limpeza periódica.
+ */
+@Entity
+@Table(name = "stored_blobs")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class StoredBlob {
+
+    @Id
+    @Column(length = 64)
+    private String sha256;
+
+    @Column(nullable = false)
+    private String path;
+
+    @Column(nullable = false)
+    private Long size;
+
+    @Column(name = "ref_count", nullable = false)
+    private Long refCount;
+
+    // Última vez que um upload gravou ou reaproveitou o arquivo
+    @Column(name = "last_stored_at", nullable = false)
+    private LocalDateTime lastStoredAt;
+}
@@ -1,31 +1,78 @@
 package com.ptmd.repository;
 
+import com.ptmd.dto.ConsultationRow;
 import com.ptmd.entity.Consultation;
 import com.ptmd.entity.User;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface ConsultationRepository extends JpaRepository<Consultation, Long> {
     List<Consultation> findByMedico(User medico);
-    @Query("SELECT DISTINCT c FROM Consultation c LEFT JOIN FETCH c.images WHERE c.medico = :medico ORDER BY c.createdAt DESC")
-    List<Consultation> findByMedicoOrderByCreatedAtDesc(@Param("medico") User medico);
-    
-    @Query("SELECT DISTINCT c FROM Consultation c LEFT JOIN FETCH c.images WHERE c.medico = :medico " +
-           "AND (:nome IS NULL OR LOWER(c.patient.nome) LIKE LOWER(CONCAT('%', :nome, '%'))) " +
-           "AND (:cpf IS NULL OR c.patient.cpf = :cpf) " +
-           "ORDER BY c.createdAt DESC")
-    List<Consultation> findByMedicoWithFilters(
-        @Param("medico") User medico,
+
+    String CONSULTATION_ROW = "SELECT new com.ptmd.dto.ConsultationRow(c.id, c.medico.id, c.aiDiagnosis, c.confidence, " +
+           "c.multClass, c.multClassConfidence, c.finalDiagnosis, c.confirmed, c.createdAt, " +
+           "p.id, p.nome, p.cpf, p.sexo, p.dataNascimento) FROM Consultation c JOIN c.patient p ";
+
+    // Listagem paginada por keyset em (createdAt, id): a primeira página e as seguintes
+    // usam o mesmo índice (medico_id, created_at, id) e nunca fazem OFFSET
+    @Query(CONSULTATION_ROW + "WHERE c.medico.id = :medicoId " +
+           "AND (:nome IS NULL OR LOWER(p.nome) LIKE LOWER(CONCAT('%', :nome, '%'))) " +
+           "AND (:cpf IS NULL OR p.cpf = :cpf) " +
+           "ORDER BY c.createdAt DESC, c.id DESC")
+    List<ConsultationRow> findFirstPageByMedico(
+        @Param("medicoId") Long medicoId,
+        @Param("nome") String nome,
+        @Param("cpf") String cpf,
+        Pageable pageable
+    );
+
+    @Query(CONSULTATION_ROW + "WHERE c.medico.id = :medicoId " +
+           "AND (:nome IS NULL OR LOWER(p.nome) LIKE LOWER(CONCAT('%', :nome, '%'))) " +
+           "AND (:cpf IS NULL OR p.cpf = :cpf) " +
+           "AND (c.createdAt < :createdAt OR (c.createdAt = :createdAt AND c.id < :id)) " +
+           "ORDER BY c.createdAt DESC, c.id DESC")
+    List<ConsultationRow> findPageByMedicoAfter(
+        @Param("medicoId") Long medicoId,
         @Param("nome") String nome,
-        @Param("cpf") String cpf
+        @Param("cpf") String cpf,
+        @Param("createdAt") LocalDateTime createdAt,
+        @Param("id") Long id,
+        Pageable pageable
     );
 
+    @Query(CONSULTATION_ROW + "WHERE c.id = :id")
+    Optional<ConsultationRow> findRowById(@Param("id") Long id);
+
+    long countByConfirmedTrue();
+
+    @Query(value = "SELECT DATE(created_at), COUNT(*) FROM consultations WHERE created_at >= :since " +
+                   "GROUP BY DATE(created_at)", nativeQuery = true)
+    List<Object[]> countPerDaySince(@Param("since") LocalDateTime since);
+
+    // (dia da confirmação, diagnóstico da IA, diagnóstico do médico, quantidade) das consultas confirmadas
+    @Query(value = "SELECT DATE(COALESCE(confirmed_at, created_at)), COALESCE(NULLIF(mult_class, ''), ai_diagnosis), final_diagnosis, COUNT(*) " +
+                   "FROM consultations WHERE confirmed = true AND ai_diagnosis IS NOT NULL AND final_diagnosis IS NOT NULL " +
+                   "GROUP BY DATE(COALESCE(confirmed_at, created_at)), COALESCE(NULLIF(mult_class, ''), ai_diagnosis), final_diagnosis",
+           nativeQuery = true)
+    List<Object[]> countAgreementPerDay();
+
     @Query("SELECT DISTINCT c FROM Consultation c LEFT JOIN FETCH c.images WHERE c.id = :id")
     Consultation findByIdWithImages(@Param("id") Long id);
+
+    // Mesma busca, travando a consulta até o fim da transação: os workers da fila que
+    // recalculam o diagnóstico de uma mesma consulta passam um de cada vez
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT c FROM Consultation c LEFT JOIN FETCH c.images WHERE c.id = :id")
+    Consultation findByIdWithImagesForUpdate(@Param("id") Long id);
 }
 
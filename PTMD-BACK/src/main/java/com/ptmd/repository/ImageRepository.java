@@ -1,16 +1,85 @@
 package com.ptmd.repository;
 
+import com.ptmd.dto.ExportImageRow;
+import com.ptmd.dto.ImageRow;
 import com.ptmd.entity.Image;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
 public interface ImageRepository extends JpaRepository<Image, Long> {
     
-    @Query("SELECT i FROM Image i JOIN FETCH i.consultation c JOIN FETCH c.patient WHERE i.confirmed = true AND i.aiDiagnosis IS NOT NULL AND i.finalDiagnosis IS NOT NULL")
-    List<Image> findConfirmedImagesWithDiagnosis();
+    boolean existsByConfirmedTrueAndAiDiagnosisIsNotNullAndFinalDiagnosisIsNotNull();
+
+    String EXPORT_ROW = "SELECT new com.ptmd.dto.ExportImageRow(i.id, c.patient.id, i.fileName, i.filePath, " +
+           "i.contentType, i.aiDiagnosis, i.finalDiagnosis, i.confirmedAt, i.firstConfirmedAt) " +
+           "FROM Image i JOIN i.consultation c " +
+           "WHERE i.confirmed = true AND i.aiDiagnosis IS NOT NULL AND i.finalDiagnosis IS NOT NULL ";
+
+    // Lidos em stream com cursor no servidor (useCursorFetch na URL do banco), em lotes do
+    // fetch size, na ordem do índice (confirmed_at, id)
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query(EXPORT_ROW + "AND i.confirmedAt <= :until ORDER BY i.confirmedAt, i.id")
+    Stream<ExportImageRow> streamConfirmedImagesWithDiagnosis(@Param("until") LocalDateTime until);
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    @Query(EXPORT_ROW + "AND (i.confirmedAt > :sinceAt OR (i.confirmedAt = :sinceAt AND i.id > :sinceId)) " +
+           "AND i.confirmedAt <= :until ORDER BY i.confirmedAt, i.id")
+    Stream<ExportImageRow> streamConfirmedImagesWithDiagnosisAfter(@Param("sinceAt") LocalDateTime sinceAt,
+                                                                   @Param("sinceId") Long sinceId,
+                                                                   @Param("until") LocalDateTime until);
+
+    // Imagens confirmadas antes de existir confirmed_at passam a usar a data de criação
+    @Modifying
+    @Query("UPDATE Image i SET i.confirmedAt = i.createdAt, i.firstConfirmedAt = i.createdAt " +
+           "WHERE i.confirmed = true AND i.confirmedAt IS NULL")
+    int backfillConfirmedAt();
+
+    // Imagens gravadas antes do armazenamento por conteúdo, para a migração dos arquivos
+    @Query("SELECT i.id, i.filePath FROM Image i WHERE i.contentHash IS NULL AND i.id > :afterId ORDER BY i.id")
+    List<Object[]> findLegacyFiles(@Param("afterId") Long afterId, Pageable pageable);
+
+    long countByContentHashIsNull();
+
+    // Só troca o caminho se a imagem ainda aponta para o arquivo antigo
+    @Modifying
+    @Query("UPDATE Image i SET i.filePath = :newPath, i.contentHash = :contentHash " +
+           "WHERE i.id = :id AND i.filePath = :oldPath AND i.contentHash IS NULL")
+    int relocateFile(@Param("id") Long id, @Param("oldPath") String oldPath, @Param("newPath") String newPath,
+                     @Param("contentHash") String contentHash);
+
+    @Query("SELECT new com.ptmd.dto.ImageRow(i.consultation.id, i.id, i.fileName, i.filePath, i.fileSize, " +
+           "i.contentType, i.aiDiagnosis, i.confidence, i.multClass, i.multClassConfidence, i.finalDiagnosis, " +
+           "i.confirmed, i.createdAt) FROM Image i WHERE i.consultation.id IN :consultationIds ORDER BY i.id")
+    List<ImageRow> findRowsByConsultationIds(@Param("consultationIds") Collection<Long> consultationIds);
+
+    long countByConfirmedTrue();
+
+    @Query("SELECT i.finalDiagnosis, COUNT(i) FROM Image i WHERE i.confirmed = true AND i.finalDiagnosis IS NOT NULL " +
+           "GROUP BY i.finalDiagnosis")
+    List<Object[]> countConfirmedByFinalDiagnosis();
+
+    @Query(value = "SELECT DATE(created_at), COUNT(*) FROM images WHERE created_at >= :since GROUP BY DATE(created_at)",
+           nativeQuery = true)
+    List<Object[]> countPerDaySince(@Param("since") LocalDateTime since);
+
+    // (dia da confirmação, diagnóstico da IA, diagnóstico do médico, quantidade) das imagens confirmadas
+    @Query(value = "SELECT DATE(COALESCE(confirmed_at, created_at)), COALESCE(NULLIF(mult_class, ''), ai_diagnosis), final_diagnosis, COUNT(*) " +
+                   "FROM images WHERE confirmed = true AND ai_diagnosis IS NOT NULL AND final_diagnosis IS NOT NULL " +
+                   "GROUP BY DATE(COALESCE(confirmed_at, created_at)), COALESCE(NULLIF(mult_class, ''), ai_diagnosis), final_diagnosis",
+           nativeQuery = true)
+    List<Object[]> countAgreementPerDay();
 }
 
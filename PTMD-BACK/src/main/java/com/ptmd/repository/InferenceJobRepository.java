@@ -0,0 +1,48 @@
+package com.ptmd.repository;
+
+import com.ptmd.entity.InferenceJob;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+@Repository
+public interface InferenceJobRepository extends JpaRepository<InferenceJob, Long> {
+
+    // Jobs no status pedido cuja próxima tentativa já pode rodar (os que falharam esperam o backoff)
+    @Query("SELECT j.id FROM InferenceJob j WHERE j.status = :status " +
+           "AND (j.nextAttemptAt IS NULL OR j.nextAttemptAt <= :now) ORDER BY j.id")
+    List<Long> findDueIdsByStatus(@Param("status") InferenceJob.Status status,
+                                  @Param("now") LocalDateTime now,
+                                  Pageable pageable);
+
+    @Query("SELECT j FROM InferenceJob j JOIN FETCH j.image WHERE j.id = :id")
+    Optional<InferenceJob> findByIdWithImage(@Param("id") Long id);
+
+    // Reserva o job para este worker; retorna 0 se outro worker já o pegou
+    @Modifying
+    @Query("UPDATE InferenceJob j SET j.status = :to, j.attempts = j.attempts + 1, j.claimedAt = :now " +
+           "WHERE j.id = :id AND j.status = :from")
+    int claim(@Param("id") Long id,
+              @Param("from") InferenceJob.Status from,
+              @Param("to") InferenceJob.Status to,
+              @Param("now") LocalDateTime now);
+
+    // Devolve à fila só os jobs reservados antes de claimedBefore; os mais recentes podem
+    // estar rodando em outra instância
+    @Modifying
+    @Query("UPDATE InferenceJob j SET j.status = :to " +
+           "WHERE j.status = :from AND (j.claimedAt IS NULL OR j.claimedAt < :claimedBefore)")
+    int releaseExpiredClaims(@Param("from") InferenceJob.Status from,
+                             @Param("to") InferenceJob.Status to,
+                             @Param("claimedBefore") LocalDateTime claimedBefore);
+
+    @Query("SELECT j.status, COUNT(j) FROM InferenceJob j WHERE j.image.consultation.id = :consultationId GROUP BY j.status")
+    List<Object[]> countByStatusForConsultation(@Param("consultationId") Long consultationId);
+}
@@ -0,0 +1,25 @@
+package com.ptmd.repository;
+
+import com.ptmd.entity.PredictionCacheEntry;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+
+@Repository
+public interface PredictionCacheRepository extends JpaRepository<PredictionCacheEntry, String> {
+
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM PredictionCacheEntry e WHERE e.modelVersion <> :modelVersion")
+    int deleteOtherModelVersions(@Param("modelVersion") String modelVersion);
+
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM PredictionCacheEntry e WHERE e.createdAt < :cutoff OR e.createdAt IS NULL")
+    int deleteCreatedBefore(@Param("cutoff") LocalDateTime cutoff);
+}
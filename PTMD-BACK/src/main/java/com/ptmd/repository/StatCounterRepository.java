@@ -0,0 +1,39 @@
+package com.ptmd.repository;
+
+import com.ptmd.entity.StatCounter;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface StatCounterRepository extends JpaRepository<StatCounter, Long> {
+
+    // Upsert atômico: cria o contador na primeira vez e depois só soma, sem ler antes
+    @Modifying
+    @Query(value = "INSERT INTO stat_counters (name, dimension, counter_value) VALUES (:name, :dimension, :delta) " +
+                   "ON DUPLICATE KEY UPDATE counter_value = counter_value + :delta", nativeQuery = true)
+    void increment(@Param("name") String name, @Param("dimension") String dimension, @Param("delta") long delta);
+
+    boolean existsByNameAndDimension(String name, String dimension);
+
+    // Trava a linha até o fim da transação; volta vazio, sem esperar, se outra transação já a travou
+    @Query(value = "SELECT counter_value FROM stat_counters WHERE name = :name AND dimension = '' " +
+                   "FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<Object> lockIfFree(@Param("name") String name);
+
+    @Query("SELECT s FROM StatCounter s WHERE s.name = :name AND s.dimension >= :fromDimension " +
+           "AND s.dimension < :toDimension AND s.value <> 0")
+    List<StatCounter> findRange(@Param("name") String name,
+                                @Param("fromDimension") String fromDimension,
+                                @Param("toDimension") String toDimension);
+
+    @Query("SELECT s FROM StatCounter s WHERE s.name IN :names OR (s.name IN :dailyNames AND s.dimension >= :since)")
+    List<StatCounter> findForDashboard(@Param("names") Collection<String> names,
+                                       @Param("dailyNames") Collection<String> dailyNames,
+                                       @Param("since") String since);
+}
@@ -0,0 +1,48 @@
+package com.ptmd.repository;
+
+import com.ptmd.entity.StoredBlob;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface StoredBlobRepository extends JpaRepository<StoredBlob, String> {
+
+    // Registra o blob sem referências na primeira gravação; nas seguintes renova last_stored_at
+    // e o caminho (que muda se o arquivo antigo sumiu e foi regravado em outro backend)
+    @Transactional
+    @Modifying
+    @Query(value = "INSERT INTO stored_blobs (sha256, path, size, ref_count, last_stored_at) " +
+                   "VALUES (:sha256, :path, :size, 0, :now) " +
+                   "ON DUPLICATE KEY UPDATE path = :path, last_stored_at = :now",
+           nativeQuery = true)
+    void touch(@Param("sha256") String sha256, @Param("path") String path, @Param("size") long size,
+               @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query("UPDATE StoredBlob b SET b.refCount = b.refCount + :delta WHERE b.sha256 = :sha256")
+    int addReferences(@Param("sha256") String sha256, @Param("delta") long delta);
+
+    @Transactional
+    @Modifying
+    @Query(value = "UPDATE stored_blobs b SET b.ref_count = " +
+                   "(SELECT COUNT(*) FROM images i WHERE i.content_hash = b.sha256)", nativeQuery = true)
+    int recountReferences();
+
+    @Query("SELECT b FROM StoredBlob b WHERE b.refCount = 0 AND b.lastStoredAt < :cutoff ORDER BY b.lastStoredAt")
+    List<StoredBlob> findUnreferenced(@Param("cutoff") LocalDateTime cutoff, Pageable pageable);
+
+    // Confere de novo, no próprio DELETE, que nenhuma imagem passou a usar o blob
+    @Transactional
+    @Modifying
+    @Query(value = "DELETE FROM stored_blobs WHERE sha256 = :sha256 AND ref_count = 0 AND last_stored_at < :cutoff " +
+                   "AND NOT EXISTS (SELECT 1 FROM images i WHERE i.content_hash = :sha256)", nativeQuery = true)
+    int deleteIfUnreferenced(@Param("sha256") String sha256, @Param("cutoff") LocalDateTime cutoff);
+}
@@ -3,15 +3,14 @@ package com.ptmd.security;
 import com.ptmd.entity.User;
 import com.ptmd.repository.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.security.core.GrantedAuthority;
-import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
 
-import java.util.Collection;
-import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 public class CustomUserDetailsService implements UserDetailsService {
@@ -19,20 +18,41 @@ public class CustomUserDetailsService implements UserDetailsService {
     @Autowired
     private UserRepository userRepository;
 
+    // Por quanto tempo um usuário carregado do banco é reaproveitado pelo filtro JWT
+    @Value("${app.security.user-cache.ttl-seconds:30}")
+    private long userCacheTtlSeconds;
+
+    private final Map<String, CachedPrincipal> principals = new ConcurrentHashMap<>();
+
     @Override
     public UserDetails loadUserByUsername(String email) throws UsernameNotFoundException {
         User user = userRepository.findByEmail(email)
                 .orElseThrow(() -> new UsernameNotFoundException("Usuário não encontrado: " + email));
 
-        return org.springframework.security.core.userdetails.User.builder()
-                .username(user.getEmail())
-                .password(user.getPassword())
-                .authorities(getAuthorities(user))
-                .build();
+        return UserPrincipal.from(user);
     }
 
-    private Collection<? extends GrantedAuthority> getAuthorities(User user) {
-        return Collections.singletonList(new SimpleGrantedAuthority("ROLE_" + user.getRole().name()));
+    /**
+     * Carrega o usuário para tokens que não trazem id e papel nas claims (emitidos antes
+     * dessa mudança), reaproveitando o resultado por alguns segundos. O login continua
+     * usando {@link #loadUserByUsername}, que sempre lê o banco.
+     */
+    public UserPrincipal loadCachedUser(String email) {
+        long now = System.currentTimeMillis();
+        CachedPrincipal cached = principals.get(email);
+        if (cached != null && cached.expiresAt() > now) {
+            return cached.principal();
+        }
+
+        UserPrincipal principal = (UserPrincipal) loadUserByUsername(email);
+        principals.put(email, new CachedPrincipal(principal, now + userCacheTtlSeconds * 1000));
+        return principal;
     }
-}
 
+    public void evict(String email) {
+        principals.remove(email);
+    }
+
+    private record CachedPrincipal(UserPrincipal principal, long expiresAt) {
+    }
+}
@@ -1,62 +1,122 @@
 package com.ptmd.security;
 
+import com.ptmd.entity.User;
 import io.jsonwebtoken.*;
 import io.jsonwebtoken.security.Keys;
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.Authentication;
-import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Component;
 
 import javax.crypto.SecretKey;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.Date;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 @Component
 public class JwtTokenProvider {
 
+    static final String CLAIM_USER_ID = "uid";
+    static final String CLAIM_ROLE = "role";
+
     @Value("${app.jwt.secret}")
     private String jwtSecret;
 
     @Value("${app.jwt.expiration}")
     private long jwtExpirationMs;
 
-    private SecretKey getSigningKey() {
-        return Keys.hmacShaKeyFor(jwtSecret.getBytes(StandardCharsets.UTF_8));
+    // Quantidade máxima de tokens já verificados mantidos em memória
+    @Value("${app.jwt.cache.max-entries:10000}")
+    private int cacheMaxEntries;
+
+    private SecretKey signingKey;
+    private JwtParser parser;
+
+    // Tokens já verificados, indexados pelo SHA-256 do token, válidos até a expiração do próprio token
+    private Map<String, Claims> verifiedTokens;
+
+    @PostConstruct
+    public void init() {
+        this.signingKey = Keys.hmacShaKeyFor(jwtSecret.getBytes(StandardCharsets.UTF_8));
+        this.parser = Jwts.parser().verifyWith(signingKey).build();
+        this.verifiedTokens = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Claims> eldest) {
+                return size() > cacheMaxEntries;
+            }
+        };
     }
 
     public String generateToken(Authentication authentication) {
-        UserDetails userPrincipal = (UserDetails) authentication.getPrincipal();
+        UserPrincipal userPrincipal = (UserPrincipal) authentication.getPrincipal();
         Date now = new Date();
         Date expiryDate = new Date(now.getTime() + jwtExpirationMs);
 
+        // ID e papel vão no token para o filtro montar o usuário sem consultar o banco
         return Jwts.builder()
                 .subject(userPrincipal.getUsername())
+                .claim(CLAIM_USER_ID, userPrincipal.getId())
+                .claim(CLAIM_ROLE, userPrincipal.getRole().name())
                 .issuedAt(now)
                 .expiration(expiryDate)
-                .signWith(getSigningKey())
+                .signWith(signingKey)
                 .compact();
     }
 
-    public String getUsernameFromToken(String token) {
-        Claims claims = Jwts.parser()
-                .verifyWith(getSigningKey())
-                .build()
-                .parseSignedClaims(token)
-                .getPayload();
+    /**
+     * Verifica o token e devolve suas claims, ou null se for inválido ou estiver expirado.
+     * A assinatura de um mesmo token só é verificada uma vez; as requisições seguintes
+     * usam as claims em cache até o token expirar.
+     */
+    public Claims parseToken(String token) {
+        String key = hash(token);
+        Claims claims;
+        synchronized (verifiedTokens) {
+            claims = verifiedTokens.get(key);
+        }
+        if (claims != null) {
+            if (claims.getExpiration() != null && claims.getExpiration().getTime() > System.currentTimeMillis()) {
+                return claims;
+            }
+            synchronized (verifiedTokens) {
+                verifiedTokens.remove(key);
+            }
+            return null;
+        }
 
-        return claims.getSubject();
+        try {
+            claims = parser.parseSignedClaims(token).getPayload();
+        } catch (JwtException | IllegalArgumentException e) {
+            return null;
+        }
+        synchronized (verifiedTokens) {
+            verifiedTokens.put(key, claims);
+        }
+        return claims;
     }
 
-    public boolean validateToken(String token) {
+    /**
+     * Monta o usuário a partir das claims, ou devolve null se o token não trouxer id e papel.
+     */
+    public UserPrincipal getPrincipal(Claims claims) {
+        Long userId = claims.get(CLAIM_USER_ID, Long.class);
+        String role = claims.get(CLAIM_ROLE, String.class);
+        if (userId == null || role == null) {
+            return null;
+        }
+        return new UserPrincipal(userId, claims.getSubject(), null, User.Role.valueOf(role));
+    }
+
+    private String hash(String token) {
         try {
-            Jwts.parser()
-                    .verifyWith(getSigningKey())
-                    .build()
-                    .parseSignedClaims(token);
-            return true;
-        } catch (JwtException | IllegalArgumentException e) {
-            return false;
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
         }
     }
 }
-
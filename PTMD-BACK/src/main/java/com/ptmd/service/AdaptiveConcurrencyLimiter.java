@@ -0,0 +1,202 @@
+package com.ptmd.service;
+
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limite de concorrência adaptativo (AIMD) para as chamadas ao serviço de IA.
+ * Cada chamada rápida aumenta o limite em 1/limite (cerca de +1 por "janela" de
+ * chamadas); uma chamada lenta, com erro ou timeout multiplica o limite por
+ * {@code backoffRatio}. O limite nunca passa de {@code maxLimit}, que funciona
+ * como bulkhead fixo, nem fica abaixo de {@code minLimit}. Quem espera por uma vaga
+ * fica numa fila, sem prender thread, e é atendido na ordem de chegada.
+ */
+class AdaptiveConcurrencyLimiter {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final long latencyThresholdNanos;
+    private final double backoffRatio;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Deque<Waiter> waiters = new ArrayDeque<>();
+
+    private double limit;
+    private int inFlight;
+
+    AdaptiveConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit,
+                               Duration latencyThreshold, double backoffRatio) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.latencyThresholdNanos = latencyThreshold.toNanos();
+        this.backoffRatio = backoffRatio;
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+    }
+
+    /**
+     * Pede uma vaga sem bloquear a thread: o Mono emite true quando a vaga for desta
+     * chamada, ou false se o limite continuar ocupado por {@code maxWait}; nesse caso a
+     * chamada deve ser rejeitada. Cancelar o Mono antes da vaga sair tira o pedido da fila.
+     */
+    Mono<Boolean> acquire(Duration maxWait) {
+        return Mono.<Boolean>create(sink -> {
+            Waiter waiter = new Waiter(sink);
+            boolean granted;
+            lock.lock();
+            try {
+                granted = waiters.isEmpty() && inFlight < (int) limit;
+                if (granted) {
+                    inFlight++;
+                    waiter.granted = true;
+                } else {
+                    waiters.add(waiter);
+                }
+            } finally {
+                lock.unlock();
+            }
+            sink.onCancel(() -> cancel(waiter));
+            if (granted) {
+                sink.success(true);
+            }
+        }).timeout(maxWait, Mono.just(false));
+    }
+
+    /**
+     * Pega uma vaga só se houver uma livre agora, sem esperar.
+     */
+    boolean tryAcquire() {
+        lock.lock();
+        try {
+            // Não passa na frente de quem já está na fila
+            if (!waiters.isEmpty() || inFlight >= (int) limit) {
+                return false;
+            }
+            inFlight++;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Chamada concluída com sucesso; a latência decide se o limite cresce ou diminui.
+     */
+    void onSuccess(long latencyNanos) {
+        if (latencyNanos > latencyThresholdNanos) {
+            onDropped();
+            return;
+        }
+        List<Waiter> granted;
+        lock.lock();
+        try {
+            limit = Math.min(maxLimit, limit + 1.0 / limit);
+            granted = release();
+        } finally {
+            lock.unlock();
+        }
+        signal(granted);
+    }
+
+    /**
+     * Chamada lenta, com erro ou timeout: reduz o limite multiplicativamente.
+     */
+    void onDropped() {
+        List<Waiter> granted;
+        lock.lock();
+        try {
+            limit = Math.max(minLimit, limit * backoffRatio);
+            granted = release();
+        } finally {
+            lock.unlock();
+        }
+        signal(granted);
+    }
+
+    /**
+     * Chamada cancelada ou que falhou por motivo alheio ao serviço de IA: só libera a vaga.
+     */
+    void onIgnore() {
+        List<Waiter> granted;
+        lock.lock();
+        try {
+            granted = release();
+        } finally {
+            lock.unlock();
+        }
+        signal(granted);
+    }
+
+    int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Libera uma vaga e reserva as vagas livres para os primeiros da fila. Chamado com o
+     * lock adquirido; quem chama avisa os contemplados depois de soltar o lock.
+     */
+    private List<Waiter> release() {
+        inFlight--;
+        List<Waiter> granted = new ArrayList<>();
+        while (!waiters.isEmpty() && inFlight < (int) limit) {
+            Waiter waiter = waiters.poll();
+            waiter.granted = true;
+            inFlight++;
+            granted.add(waiter);
+        }
+        return granted;
+    }
+
+    private void signal(List<Waiter> granted) {
+        for (Waiter waiter : granted) {
+            waiter.sink.success(true);
+        }
+    }
+
+    /**
+     * Pedido cancelado (timeout ou desistência): sai da fila, ou devolve a vaga se ela já
+     * tinha sido reservada mas ainda não chegou a quem pediu.
+     */
+    private void cancel(Waiter waiter) {
+        List<Waiter> granted = List.of();
+        lock.lock();
+        try {
+            if (!waiters.remove(waiter) && waiter.granted) {
+                granted = release();
+            }
+        } finally {
+            lock.unlock();
+        }
+        signal(granted);
+    }
+
+    private static final class Waiter {
+        private final MonoSink<Boolean> sink;
+        // Protegido pelo lock
+        private boolean granted;
+
+        private Waiter(MonoSink<Boolean> sink) {
+            this.sink = sink;
+        }
+    }
+}
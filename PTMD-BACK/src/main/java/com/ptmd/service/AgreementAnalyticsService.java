@@ -0,0 +1,128 @@
+package com.ptmd.service;
+
+import com.ptmd.dto.AgreementAnalyticsResponse;
+import com.ptmd.dto.Diagnosis;
+import com.ptmd.entity.StatCounter;
+import com.ptmd.repository.StatCounterRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Concordância entre a IA e o médico, calculada a partir dos contadores diários
+ * (dia, diagnóstico da IA, diagnóstico do médico) mantidos pelo {@link StatisticsService}.
+ * O custo depende só do número de dias e de classes do período, não do número de imagens.
+ */
+@Service
+public class AgreementAnalyticsService {
+
+    @Autowired
+    private StatCounterRepository statCounterRepository;
+
+    // Maior período aceito numa consulta, em dias
+    @Value("${app.stats.agreement.max-range-days:366}")
+    private int maxRangeDays;
+
+    @Transactional(readOnly = true)
+    public AgreementAnalyticsResponse getAgreement(LocalDate from, LocalDate to, String bucket, String level) {
+        LocalDate end = to != null ? to : LocalDate.now();
+        LocalDate start = from != null ? from : end.minusDays(29);
+        if (start.isAfter(end)) {
+            throw new RuntimeException("Data inicial deve ser anterior à data final");
+        }
+        if (start.plusDays(maxRangeDays).isBefore(end)) {
+            throw new RuntimeException("Período máximo é de " + maxRangeDays + " dias");
+        }
+
+        String counterName = switch (level) {
+            case "images" -> StatisticsService.IMAGE_AGREEMENT;
+            case "consultations" -> StatisticsService.CONSULTATION_AGREEMENT;
+            default -> throw new RuntimeException("Nível inválido: use images ou consultations");
+        };
+        if (!List.of("day", "week", "month").contains(bucket)) {
+            throw new RuntimeException("Agrupamento inválido: use day, week ou month");
+        }
+
+        Set<String> labels = new LinkedHashSet<>();
+        for (Diagnosis diagnosis : Diagnosis.values()) {
+            labels.add(diagnosis.getValue());
+        }
+
+        Map<String, Map<String, Long>> matrix = new LinkedHashMap<>();
+        Map<LocalDate, long[]> buckets = new TreeMap<>();
+        long total = 0;
+        long agreements = 0;
+
+        for (StatCounter counter : statCounterRepository.findRange(counterName,
+                start.toString(), end.plusDays(1).toString())) {
+            String[] parts = counter.getDimension().split("\\|", 3);
+            LocalDate day = LocalDate.parse(parts[0]);
+            String predicted = parts[1];
+            String confirmed = parts[2];
+            long count = counter.getValue();
+
+            labels.add(predicted);
+            labels.add(confirmed);
+            matrix.computeIfAbsent(predicted, key -> new LinkedHashMap<>()).merge(confirmed, count, Long::sum);
+
+            boolean agreed = predicted.equals(confirmed);
+            long[] bucketCounts = buckets.computeIfAbsent(bucketStart(day, bucket), key -> new long[2]);
+            bucketCounts[0] += count;
+            total += count;
+            if (agreed) {
+                bucketCounts[1] += count;
+                agreements += count;
+            }
+        }
+
+        // Matriz completa (com zeros) na ordem dos rótulos, para o cliente não precisar completar
+        Map<String, Map<String, Long>> confusionMatrix = new LinkedHashMap<>();
+        for (String predicted : labels) {
+            Map<String, Long> row = new LinkedHashMap<>();
+            for (String confirmed : labels) {
+                row.put(confirmed, matrix.getOrDefault(predicted, Map.of()).getOrDefault(confirmed, 0L));
+            }
+            confusionMatrix.put(predicted, row);
+        }
+
+        List<AgreementAnalyticsResponse.ClassMetrics> perClass = new ArrayList<>();
+        for (String label : labels) {
+            long truePositives = confusionMatrix.get(label).get(label);
+            long predictedCount = confusionMatrix.get(label).values().stream().mapToLong(Long::longValue).sum();
+            long support = confusionMatrix.values().stream().mapToLong(row -> row.get(label)).sum();
+            perClass.add(new AgreementAnalyticsResponse.ClassMetrics(label, support, predictedCount, truePositives,
+                    ratio(truePositives, predictedCount), ratio(truePositives, support)));
+        }
+
+        List<AgreementAnalyticsResponse.BucketSummary> bucketSummaries = new ArrayList<>();
+        buckets.forEach((bucketStart, counts) -> bucketSummaries.add(new AgreementAnalyticsResponse.BucketSummary(
+                bucketStart, counts[0], counts[1], ratio(counts[1], counts[0]))));
+
+        return new AgreementAnalyticsResponse(level, bucket, start, end, total, agreements, ratio(agreements, total),
+                new ArrayList<>(labels), confusionMatrix, perClass, bucketSummaries);
+    }
+
+    private LocalDate bucketStart(LocalDate day, String bucket) {
+        return switch (bucket) {
+            case "week" -> day.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+            case "month" -> day.withDayOfMonth(1);
+            default -> day;
+        };
+    }
+
+    private Double ratio(long numerator, long denominator) {
+        return denominator == 0 ? null : (double) numerator / denominator;
+    }
+}
@@ -0,0 +1,119 @@
+package com.ptmd.service;
+
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Réplicas do serviço de IA com balanceamento por menor número de requisições em
+ * andamento. Uma réplica que falha {@code failureThreshold} vezes seguidas é
+ * ejetada por {@code ejectionDuration}; se todas estiverem ejetadas, volta a ser
+ * usada a que sai da ejeção primeiro.
+ */
+class AiEndpointPool {
+
+    static class Endpoint {
+        private final String url;
+        private final WebClient client;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private int consecutiveFailures;
+        private long ejectedUntil;
+
+        Endpoint(String url, WebClient client) {
+            this.url = url;
+            this.client = client;
+        }
+
+        String getUrl() {
+            return url;
+        }
+
+        WebClient getClient() {
+            return client;
+        }
+
+        int getOutstanding() {
+            return outstanding.get();
+        }
+    }
+
+    private final List<Endpoint> endpoints;
+    private final int failureThreshold;
+    private final long ejectionMillis;
+
+    AiEndpointPool(List<String> urls, Function<String, WebClient> clientFactory,
+                   int failureThreshold, Duration ejectionDuration) {
+        List<Endpoint> list = new ArrayList<>();
+        for (String url : urls) {
+            list.add(new Endpoint(url, clientFactory.apply(url)));
+        }
+        this.endpoints = Collections.unmodifiableList(list);
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.ejectionMillis = ejectionDuration.toMillis();
+    }
+
+    List<Endpoint> getEndpoints() {
+        return endpoints;
+    }
+
+    int size() {
+        return endpoints.size();
+    }
+
+    /**
+     * Escolhe a réplica saudável com menos requisições em andamento, ignorando
+     * {@code exclude} quando houver outra opção (usado pelo pedido de hedge).
+     */
+    synchronized Endpoint select(Endpoint exclude) {
+        long now = System.currentTimeMillis();
+        Endpoint best = null;
+        Endpoint leastEjected = null;
+        int ties = 0;
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint == exclude && endpoints.size() > 1) {
+                continue;
+            }
+            if (endpoint.ejectedUntil > now) {
+                if (leastEjected == null || endpoint.ejectedUntil < leastEjected.ejectedUntil) {
+                    leastEjected = endpoint;
+                }
+                continue;
+            }
+            int outstanding = endpoint.outstanding.get();
+            if (best == null || outstanding < best.outstanding.get()) {
+                best = endpoint;
+                ties = 1;
+            } else if (outstanding == best.outstanding.get()
+                    && ThreadLocalRandom.current().nextInt(++ties) == 0) {
+                // Sorteio entre empatadas para não concentrar tudo na primeira réplica
+                best = endpoint;
+            }
+        }
+        Endpoint chosen = best != null ? best : leastEjected;
+        chosen.outstanding.incrementAndGet();
+        return chosen;
+    }
+
+    synchronized void release(Endpoint endpoint, Boolean success) {
+        endpoint.outstanding.decrementAndGet();
+        if (success == null) {
+            return;
+        }
+        if (success) {
+            endpoint.consecutiveFailures = 0;
+        } else if (++endpoint.consecutiveFailures >= failureThreshold) {
+            endpoint.ejectedUntil = System.currentTimeMillis() + ejectionMillis;
+            endpoint.consecutiveFailures = 0;
+        }
+    }
+
+    synchronized boolean isEjected(Endpoint endpoint) {
+        return endpoint.ejectedUntil > System.currentTimeMillis();
+    }
+}
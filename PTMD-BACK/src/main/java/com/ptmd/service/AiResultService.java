@@ -0,0 +1,65 @@
+package com.ptmd.service;
+
+import com.ptmd.dto.AiPredictionResponse;
+import com.ptmd.entity.Consultation;
+import com.ptmd.entity.Image;
+import org.springframework.stereotype.Service;
+
+import java.util.Comparator;
+
+/**
+ * Aplica as respostas do serviço de IA nas entidades. Usado tanto pela criação
+ * síncrona de consultas quanto pelos workers da fila de inferência.
+ */
+@Service
+public class AiResultService {
+
+    /**
+     * Grava a primeira predição da resposta na imagem e a retorna,
+     * ou retorna null quando a IA não devolveu nenhuma predição.
+     */
+    public AiPredictionResponse.Prediction applyToImage(Image image, AiPredictionResponse aiResponse) {
+        if (aiResponse == null || aiResponse.getPredictions() == null || aiResponse.getPredictions().isEmpty()) {
+            return null;
+        }
+
+        AiPredictionResponse.Prediction prediction = aiResponse.getPredictions().get(0);
+        image.setAiDiagnosis(prediction.getClassValue());
+        image.setConfidence(prediction.getProbabilidade());
+
+        if (prediction.getMultClass() != null && !prediction.getMultClass().isEmpty()) {
+            image.setMultClass(prediction.getMultClass());
+            image.setMultClassConfidence(prediction.getProbabilidadeMultClass());
+        }
+        return prediction;
+    }
+
+    public void applyToConsultation(Consultation consultation, AiPredictionResponse.Prediction prediction) {
+        consultation.setAiDiagnosis(prediction.getClassValue());
+        consultation.setConfidence(prediction.getProbabilidade());
+        if (prediction.getMultClass() != null && !prediction.getMultClass().isEmpty()) {
+            consultation.setMultClass(prediction.getMultClass());
+            consultation.setMultClassConfidence(prediction.getProbabilidadeMultClass());
+        }
+    }
+
+    /**
+     * Recalcula o diagnóstico da consulta a partir das imagens já analisadas:
+     * vale o resultado da primeira imagem enviada que já tem diagnóstico da IA.
+     */
+    public void refreshConsultationDiagnosis(Consultation consultation) {
+        if (consultation.getImages() == null) {
+            return;
+        }
+
+        consultation.getImages().stream()
+                .filter(image -> image.getAiDiagnosis() != null)
+                .min(Comparator.comparing(Image::getId))
+                .ifPresent(image -> {
+                    consultation.setAiDiagnosis(image.getAiDiagnosis());
+                    consultation.setConfidence(image.getConfidence());
+                    consultation.setMultClass(image.getMultClass());
+                    consultation.setMultClassConfidence(image.getMultClassConfidence());
+                });
+    }
+}
@@ -1,90 +1,405 @@
 package com.ptmd.service;
 
+import com.ptmd.dto.AiBatchPredictionResponse;
 import com.ptmd.dto.AiPredictionResponse;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics;
+import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
 import org.springframework.http.HttpStatusCode;
 import org.springframework.http.MediaType;
 import org.springframework.http.client.MultipartBodyBuilder;
 import org.springframework.stereotype.Service;
-import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.core.scheduler.Schedulers;
 
-import java.io.IOException;
 import java.time.Duration;
-import java.util.function.Predicate;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service
 public class AiService {
 
+    @Autowired
+    private PredictionCacheService predictionCacheService;
+
+    @Autowired
+    private ImagePreprocessingService imagePreprocessingService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Uma ou mais réplicas do serviço de IA, separadas por vírgula
     @Value("${app.ai-service.url}")
-    private String aiServiceUrl;
+    private List<String> aiServiceUrls;
+
+    @Value("${app.ai-service.ejection.failure-threshold:3}")
+    private int ejectionFailureThreshold;
+
+    @Value("${app.ai-service.ejection.duration-ms:30000}")
+    private long ejectionDurationMs;
+
+    @Value("${app.ai-service.hedging.enabled:false}")
+    private boolean hedgingEnabled;
+
+    // Piso do atraso do hedge, para não duplicar chamadas quando o p95 ainda é muito baixo
+    @Value("${app.ai-service.hedging.min-delay-ms:50}")
+    private long hedgingMinDelayMs;
+
+    // Limite global de chamadas simultâneas ao serviço de IA (somando todas as consultas).
+    // É o teto do limite adaptativo, que varia entre limiter.min-limit e este valor
+    @Value("${app.ai-service.max-in-flight:16}")
+    private int maxInFlight;
+
+    @Value("${app.ai-service.limiter.initial-limit:8}")
+    private int limiterInitialLimit;
+
+    @Value("${app.ai-service.limiter.min-limit:1}")
+    private int limiterMinLimit;
+
+    @Value("${app.ai-service.limiter.latency-threshold-ms:5000}")
+    private long limiterLatencyThresholdMs;
+
+    @Value("${app.ai-service.limiter.backoff-ratio:0.9}")
+    private double limiterBackoffRatio;
+
+    // Tempo máximo de espera por uma vaga antes de rejeitar a chamada
+    @Value("${app.ai-service.bulkhead.max-wait-ms:30000}")
+    private long bulkheadMaxWaitMs;
+
+    @Value("${app.ai-service.circuit-breaker.failure-rate-threshold:50}")
+    private float breakerFailureRateThreshold;
+
+    @Value("${app.ai-service.circuit-breaker.slow-call-duration-ms:10000}")
+    private long breakerSlowCallDurationMs;
+
+    @Value("${app.ai-service.circuit-breaker.slow-call-rate-threshold:80}")
+    private float breakerSlowCallRateThreshold;
+
+    @Value("${app.ai-service.circuit-breaker.sliding-window-size:20}")
+    private int breakerSlidingWindowSize;
 
-    private WebClient webClient;
+    @Value("${app.ai-service.circuit-breaker.minimum-calls:10}")
+    private int breakerMinimumCalls;
+
+    @Value("${app.ai-service.circuit-breaker.wait-in-open-ms:30000}")
+    private long breakerWaitInOpenMs;
+
+    @Value("${app.ai-service.batch.enabled:true}")
+    private boolean batchEnabled;
+
+    @Value("${app.ai-service.batch.max-size:8}")
+    private int batchMaxSize;
+
+    @Value("${app.ai-service.batch.linger-ms:20}")
+    private long batchLingerMs;
+
+    @Value("${app.ai-service.batch.unavailable-cooldown-ms:60000}")
+    private long batchUnavailableCooldownMs;
+
+    private AiEndpointPool endpointPool;
+
+    private final LatencyWindow latencyWindow = new LatencyWindow(256);
+
+    private Counter hedges;
+
+    private AdaptiveConcurrencyLimiter limiter;
+
+    private CircuitBreaker circuitBreaker;
+
+    private Counter rejections;
+
+    private PredictionBatcher batcher;
 
     @PostConstruct
     public void init() {
-        if (aiServiceUrl == null || aiServiceUrl.isEmpty()) {
+        List<String> urls = aiServiceUrls == null ? List.of() : aiServiceUrls.stream()
+                .map(String::trim)
+                .filter(url -> !url.isEmpty())
+                .collect(Collectors.toList());
+        if (urls.isEmpty()) {
             throw new IllegalStateException("app.ai-service.url não está configurado");
         }
-        
-        this.webClient = WebClient.builder()
-                .baseUrl(aiServiceUrl)
-                .codecs(configurer -> configurer
-                        .defaultCodecs()
-                        .maxInMemorySize(10 * 1024 * 1024)) // 10MB para imagens
-                .build();
+        if (maxInFlight < 1) {
+            throw new IllegalStateException("app.ai-service.max-in-flight deve ser maior que zero");
+        }
+
+        this.limiter = new AdaptiveConcurrencyLimiter(limiterInitialLimit, limiterMinLimit, maxInFlight,
+                Duration.ofMillis(limiterLatencyThresholdMs), limiterBackoffRatio);
+
+        CircuitBreakerRegistry breakerRegistry = CircuitBreakerRegistry.of(CircuitBreakerConfig.custom()
+                .failureRateThreshold(breakerFailureRateThreshold)
+                .slowCallDurationThreshold(Duration.ofMillis(breakerSlowCallDurationMs))
+                .slowCallRateThreshold(breakerSlowCallRateThreshold)
+                .slidingWindowSize(breakerSlidingWindowSize)
+                .minimumNumberOfCalls(breakerMinimumCalls)
+                .waitDurationInOpenState(Duration.ofMillis(breakerWaitInOpenMs))
+                .automaticTransitionFromOpenToHalfOpenEnabled(true)
+                // Endpoint de lote ausente não é falha do serviço de IA
+                .ignoreExceptions(PredictionBatcher.BatchUnavailableException.class)
+                .build());
+        this.circuitBreaker = breakerRegistry.circuitBreaker("ai-service");
+        TaggedCircuitBreakerMetrics.ofCircuitBreakerRegistry(breakerRegistry).bindTo(meterRegistry);
+
+        Gauge.builder("ptmd.ai.limiter.limit", limiter, AdaptiveConcurrencyLimiter::getLimit).register(meterRegistry);
+        Gauge.builder("ptmd.ai.limiter.in_flight", limiter, AdaptiveConcurrencyLimiter::getInFlight).register(meterRegistry);
+        this.rejections = Counter.builder("ptmd.ai.limiter.rejections").register(meterRegistry);
+
+        // As imagens vão em stream no corpo da requisição; o buffer padrão dos codecs
+        // só precisa comportar a resposta JSON da IA
+        this.endpointPool = new AiEndpointPool(urls, url -> WebClient.builder()
+                .baseUrl(url)
+                .build(), ejectionFailureThreshold, Duration.ofMillis(ejectionDurationMs));
+        for (AiEndpointPool.Endpoint endpoint : endpointPool.getEndpoints()) {
+            Gauge.builder("ptmd.ai.endpoint.outstanding", endpoint, AiEndpointPool.Endpoint::getOutstanding)
+                    .tag("url", endpoint.getUrl()).register(meterRegistry);
+            Gauge.builder("ptmd.ai.endpoint.ejected", endpoint, e -> endpointPool.isEjected(e) ? 1 : 0)
+                    .tag("url", endpoint.getUrl()).register(meterRegistry);
+        }
+        this.hedges = Counter.builder("ptmd.ai.hedge.requests").register(meterRegistry);
+
+        if (batchEnabled && batchMaxSize > 1) {
+            this.batcher = new PredictionBatcher(batchMaxSize, Duration.ofMillis(batchLingerMs),
+                    Duration.ofMillis(batchUnavailableCooldownMs), this::callBatchWithPermit, this::callWithPermit);
+        }
     }
 
-    public AiPredictionResponse predict(MultipartFile image) {
-        if (image == null || image.isEmpty()) {
-            throw new RuntimeException("Imagem não pode ser nula ou vazia");
+    @PreDestroy
+    public void shutdown() {
+        if (batcher != null) {
+            batcher.shutdown();
         }
+    }
 
-        try {
-            ByteArrayResource resource = new ByteArrayResource(image.getBytes()) {
-                @Override
-                public String getFilename() {
-                    return image.getOriginalFilename() != null ? image.getOriginalFilename() : "image.jpg";
-                }
-            };
+    /**
+     * Envia para a IA uma imagem já disponível como {@link Resource}, por exemplo um
+     * arquivo salvo pelo {@link FileStorageService}. A imagem é lida em stream, sem
+     * copiar o conteúdo inteiro para um byte[]; um {@link FileSystemResource} é enviado
+     * direto do disco por canal NIO em blocos, sem passar inteiro pelo heap.
+     */
+    public Mono<AiPredictionResponse> predictAsync(Resource image, String contentType) {
+        if (image == null || !image.exists()) {
+            return Mono.error(new RuntimeException("Imagem não pode ser nula ou vazia"));
+        }
 
-            MultipartBodyBuilder builder = new MultipartBodyBuilder();
-            builder.part("file", resource)
-                    .contentType(MediaType.parseMediaType(
-                            image.getContentType() != null ? image.getContentType() : "image/jpeg"));
-
-            Mono<AiPredictionResponse> responseMono = webClient.post()
-                    .uri("/predict")
-                    .contentType(MediaType.MULTIPART_FORM_DATA)
-                    .body(BodyInserters.fromMultipartData(builder.build()))
-                    .retrieve()
-                    .onStatus(HttpStatusCode::is4xxClientError, response -> {
-                        return response.bodyToMono(String.class)
-                                .flatMap(body -> Mono.error(new RuntimeException(
-                                        "Erro do serviço de IA (4xx): " + response.statusCode() + " - " + body)));
-                    })
-                    .onStatus(HttpStatusCode::is5xxServerError, response -> {
-                        return response.bodyToMono(String.class)
-                                .flatMap(body -> Mono.error(new RuntimeException(
-                                        "Erro do serviço de IA (5xx): " + response.statusCode() + " - " + body)));
+        if (!predictionCacheService.isEnabled()) {
+            return send(image, contentType);
+        }
+
+        // Reenvios da mesma imagem reaproveitam a predição já feita para esta versão do modelo
+        return Mono.fromCallable(() -> predictionCacheService.fingerprint(image))
+                .flatMap(hash -> predictionCacheService.get(hash)
+                        .map(Mono::just)
+                        .orElseGet(() -> send(image, contentType)
+                                // put() grava no banco; a resposta chega na thread do Netty ou do
+                                // batcher, que não podem bloquear esperando o JDBC
+                                .flatMap(response -> Mono.fromRunnable(() -> predictionCacheService.put(hash, response))
+                                        .subscribeOn(Schedulers.boundedElastic())
+                                        .thenReturn(response))))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private Mono<AiPredictionResponse> send(Resource image, String contentType) {
+        return Mono.fromCallable(() -> imagePreprocessingService.prepare(image, contentType))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(prepared -> batcher != null
+                        ? batcher.submit(prepared.resource(), prepared.contentType())
+                        : callWithPermit(prepared.resource(), prepared.contentType()));
+    }
+
+    // Um lote conta como uma única chamada no limite global de requisições simultâneas
+    private Mono<AiPredictionResponse> callWithPermit(Resource image, String contentType) {
+        return guarded(client -> callPredict(client, image, contentType), true);
+    }
+
+    private Mono<List<AiPredictionResponse>> callBatchWithPermit(List<PredictionBatcher.PendingPrediction> batch) {
+        return guarded(client -> callPredictBatch(client, batch), false);
+    }
+
+    /**
+     * Protege uma chamada HTTP ao serviço de IA: falha na hora com o circuit breaker
+     * aberto, espera no máximo bulkhead.max-wait-ms por uma vaga no limite adaptativo
+     * e devolve a latência observada ao limitador. A espera pela vaga não ocupa thread:
+     * a chamada só é assinada quando o limitador libera a vaga.
+     */
+    private <T> Mono<T> guarded(Function<WebClient, Mono<T>> call, boolean hedgeable) {
+        return Mono.defer(() -> {
+            if (circuitBreaker.getState() == CircuitBreaker.State.OPEN) {
+                return Mono.error(CallNotPermittedException.createCallNotPermittedException(circuitBreaker));
+            }
+            return limiter.acquire(Duration.ofMillis(bulkheadMaxWaitMs))
+                    .flatMap(acquired -> {
+                        if (!acquired) {
+                            rejections.increment();
+                            return Mono.error(new RuntimeException(
+                                    "Serviço de IA sobrecarregado: limite de chamadas simultâneas atingido"));
+                        }
+                        return withLimiterFeedback(routed(call, hedgeable)
+                                .transformDeferred(CircuitBreakerOperator.of(circuitBreaker)));
+                    });
+        })
+                .onErrorMap(CallNotPermittedException.class, e -> new RuntimeException(
+                        "Serviço de IA temporariamente indisponível (circuit breaker aberto)", e));
+    }
+
+    /**
+     * Devolve ao limitador a vaga de uma chamada já admitida, com a latência observada.
+     */
+    private <T> Mono<T> withLimiterFeedback(Mono<T> call) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            return call
+                    .doOnError(failure::set)
+                    .doFinally(signal -> {
+                        Throwable error = failure.get();
+                        if (signal == SignalType.CANCEL || error instanceof PredictionBatcher.BatchUnavailableException
+                                || error instanceof CallNotPermittedException) {
+                            limiter.onIgnore();
+                        } else if (error != null) {
+                            limiter.onDropped();
+                        } else {
+                            limiter.onSuccess(System.nanoTime() - start);
+                        }
+                    });
+        });
+    }
+
+    /**
+     * Envia a chamada para a réplica com menos requisições em andamento. Com hedging
+     * ligado, se ela não responder até o p95 observado, uma cópia vai para outra
+     * réplica e vale a primeira resposta. A cópia ocupa uma vaga própria no limite
+     * adaptativo; sem vaga livre naquele momento, não há hedge.
+     */
+    private <T> Mono<T> routed(Function<WebClient, Mono<T>> call, boolean hedgeable) {
+        AtomicReference<AiEndpointPool.Endpoint> primary = new AtomicReference<>();
+        Mono<T> first = attempt(call, primary, false, hedgeable);
+        if (!hedgingEnabled || !hedgeable || endpointPool.size() < 2) {
+            return first;
+        }
+
+        long p95 = latencyWindow.percentile(0.95, 20);
+        if (p95 < 0) {
+            return first;
+        }
+        Duration hedgeDelay = Duration.ofNanos(Math.max(p95, Duration.ofMillis(hedgingMinDelayMs).toNanos()));
+        AtomicReference<Throwable> primaryError = new AtomicReference<>();
+        Mono<T> hedge = Mono.delay(hedgeDelay)
+                .then(Mono.defer(() -> {
+                    if (!limiter.tryAcquire()) {
+                        return Mono.<T>empty();
+                    }
+                    hedges.increment();
+                    return withLimiterFeedback(attempt(call, primary, true, true));
+                }));
+        // Se nenhuma das duas der resposta, propaga o erro da chamada original em vez do
+        // erro genérico do firstWithValue
+        return Mono.firstWithValue(first.doOnError(primaryError::set), hedge)
+                .onErrorMap(NoSuchElementException.class, e -> primaryError.get() != null ? primaryError.get() : e);
+    }
+
+    /**
+     * Uma tentativa numa réplica. Só chamadas avulsas ({@code recordLatency}) entram na
+     * janela de latência que define o atraso do hedge: um lote demora mais e não é hedgeado.
+     */
+    private <T> Mono<T> attempt(Function<WebClient, Mono<T>> call,
+                                AtomicReference<AiEndpointPool.Endpoint> primary, boolean hedge,
+                                boolean recordLatency) {
+        return Mono.defer(() -> {
+            AiEndpointPool.Endpoint endpoint = endpointPool.select(hedge ? primary.get() : null);
+            if (!hedge) {
+                primary.set(endpoint);
+            }
+            long start = System.nanoTime();
+            AtomicReference<Boolean> outcome = new AtomicReference<>();
+            return call.apply(endpoint.getClient())
+                    .doOnSuccess(value -> {
+                        outcome.set(Boolean.TRUE);
+                        if (recordLatency) {
+                            latencyWindow.record(System.nanoTime() - start);
+                        }
                     })
-                    .bodyToMono(AiPredictionResponse.class)
-                    .timeout(Duration.ofSeconds(60));
-
-            return responseMono.block();
-        } catch (WebClientResponseException e) {
-            String errorBody = e.getResponseBodyAsString();
-            throw new RuntimeException("Erro ao comunicar com serviço de IA: " + e.getStatusCode() + 
-                    (errorBody != null && !errorBody.isEmpty() ? " - " + errorBody : ""), e);
-        } catch (IOException e) {
-            throw new RuntimeException("Erro ao processar imagem para IA: " + e.getMessage(), e);
-        } catch (Exception e) {
-            throw new RuntimeException("Erro inesperado ao processar imagem para IA: " + e.getMessage(), e);
+                    .doOnError(e -> outcome.set(e instanceof PredictionBatcher.BatchUnavailableException ? null : Boolean.FALSE))
+                    .doFinally(signal -> endpointPool.release(endpoint, outcome.get()));
+        });
+    }
+
+    private Mono<AiPredictionResponse> callPredict(WebClient webClient, Resource resource, String contentType) {
+        MultipartBodyBuilder builder = new MultipartBodyBuilder();
+        builder.part("file", resource)
+                .contentType(MediaType.parseMediaType(
+                        contentType != null ? contentType : "image/jpeg"));
+
+        return webClient.post()
+                .uri("/predict")
+                .contentType(MediaType.MULTIPART_FORM_DATA)
+                .body(BodyInserters.fromMultipartData(builder.build()))
+                .retrieve()
+                .onStatus(HttpStatusCode::is4xxClientError, response -> {
+                    return response.bodyToMono(String.class)
+                            .flatMap(body -> Mono.error(new RuntimeException(
+                                    "Erro do serviço de IA (4xx): " + response.statusCode() + " - " + body)));
+                })
+                .onStatus(HttpStatusCode::is5xxServerError, response -> {
+                    return response.bodyToMono(String.class)
+                            .flatMap(body -> Mono.error(new RuntimeException(
+                                    "Erro do serviço de IA (5xx): " + response.statusCode() + " - " + body)));
+                })
+                .bodyToMono(AiPredictionResponse.class)
+                .switchIfEmpty(Mono.error(new RuntimeException("Serviço de IA retornou resposta vazia")))
+                .timeout(Duration.ofSeconds(60))
+                .onErrorMap(WebClientResponseException.class, e -> {
+                    String errorBody = e.getResponseBodyAsString();
+                    return new RuntimeException("Erro ao comunicar com serviço de IA: " + e.getStatusCode() +
+                            (errorBody != null && !errorBody.isEmpty() ? " - " + errorBody : ""), e);
+                })
+                .onErrorMap(e -> e.getClass() != RuntimeException.class,
+                        e -> new RuntimeException("Erro inesperado ao processar imagem para IA: " + e.getMessage(), e));
+    }
+
+    private Mono<List<AiPredictionResponse>> callPredictBatch(WebClient webClient,
+                                                              List<PredictionBatcher.PendingPrediction> batch) {
+        MultipartBodyBuilder builder = new MultipartBodyBuilder();
+        for (PredictionBatcher.PendingPrediction pending : batch) {
+            builder.part("files", pending.image())
+                    .contentType(MediaType.parseMediaType(
+                            pending.contentType() != null ? pending.contentType() : "image/jpeg"));
         }
+
+        return webClient.post()
+                .uri("/predict/batch")
+                .contentType(MediaType.MULTIPART_FORM_DATA)
+                .body(BodyInserters.fromMultipartData(builder.build()))
+                .retrieve()
+                .onStatus(status -> status.value() == 404 || status.value() == 405 || status.value() == 501,
+                        response -> Mono.error(new PredictionBatcher.BatchUnavailableException(
+                                "Endpoint de lote da IA indisponível: " + response.statusCode())))
+                .onStatus(HttpStatusCode::isError, response -> {
+                    return response.bodyToMono(String.class)
+                            .flatMap(body -> Mono.error(new RuntimeException(
+                                    "Erro do serviço de IA no lote: " + response.statusCode() + " - " + body)));
+                })
+                .bodyToMono(AiBatchPredictionResponse.class)
+                .map(AiBatchPredictionResponse::getResults)
+                .switchIfEmpty(Mono.error(new RuntimeException("Serviço de IA retornou resposta vazia no lote")))
+                .timeout(Duration.ofSeconds(60));
     }
 }
@@ -6,6 +6,7 @@ import com.ptmd.dto.RegisterRequest;
 import com.ptmd.entity.User;
 import com.ptmd.repository.UserRepository;
 import com.ptmd.security.JwtTokenProvider;
+import com.ptmd.security.UserPrincipal;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.authentication.AuthenticationManager;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
@@ -61,9 +62,7 @@ public class AuthService {
         SecurityContextHolder.getContext().setAuthentication(authentication);
         String jwt = tokenProvider.generateToken(authentication);
 
-        User user = userRepository.findByEmail(request.getEmail())
-                .orElseThrow(() -> new RuntimeException("Usuário não encontrado"));
-
+        UserPrincipal user = (UserPrincipal) authentication.getPrincipal();
         return new JwtResponse(jwt, "Bearer", user.getEmail(), user.getRole().name());
     }
 }
@@ -4,17 +4,30 @@ import com.ptmd.dto.*;
 import com.ptmd.entity.*;
 import com.ptmd.repository.ConsultationRepository;
 import com.ptmd.repository.ImageRepository;
+import com.ptmd.repository.InferenceJobRepository;
 import com.ptmd.repository.PatientRepository;
 import com.ptmd.repository.UserRepository;
+import com.ptmd.security.UserPrincipal;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.security.core.Authentication;
-import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
+import reactor.core.publisher.Flux;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Service
@@ -38,103 +51,191 @@ public class ConsultationService {
     @Autowired
     private AiService aiService;
 
-    @Transactional
+    @Autowired
+    private AiResultService aiResultService;
+
+    @Autowired
+    private InferenceJobRepository inferenceJobRepository;
+
+    @Autowired
+    private InferenceQueueService inferenceQueueService;
+
+    @Autowired
+    private StatisticsService statisticsService;
+
+    @Autowired
+    private ThumbnailService thumbnailService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${app.consultations.max-page-size:100}")
+    private int maxPageSize;
+
+    // Número máximo de imagens de uma mesma consulta analisadas simultaneamente pela IA
+    @Value("${app.ai-service.parallelism-per-consultation:4}")
+    private int parallelismPerConsultation;
+
+    /**
+     * Cria a consulta em três fases para não segurar uma conexão do pool durante a IA:
+     * uma transação curta grava paciente, consulta e imagens; a inferência roda sem
+     * transação; e uma segunda transação curta grava os resultados da IA.
+     */
     public ConsultationResponse createConsultation(ConsultationRequest request) throws IOException {
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        String email = authentication.getName();
-        User medico = userRepository.findByEmail(email)
-                .orElseThrow(() -> new RuntimeException("Médico não encontrado"));
+        List<MultipartFile> imageFiles = request.getImages();
+        List<Long> imageIds = new ArrayList<>();
+        List<FileStorageService.StoredFile> storedFiles = new ArrayList<>();
+        Long consultationId = storeConsultation(request, imageIds, storedFiles);
+
+        // Fase 2: enviar as imagens para a IA em paralelo, sem transação aberta;
+        // flatMapSequential devolve os resultados na mesma ordem do upload.
+        // A IA lê o arquivo já salvo em disco, em stream
+        List<AiPredictionResponse> aiResponses;
+        try {
+            aiResponses = Flux.range(0, imageFiles.size())
+                    .flatMapSequential(i -> aiService.predictAsync(
+                            fileStorageService.loadResource(storedFiles.get(i).path()), imageFiles.get(i).getContentType()),
+                            parallelismPerConsultation)
+                    .collectList()
+                    .block();
+        } catch (RuntimeException e) {
+            // Sem resultado da IA a consulta não é criada, como antes da separação em fases
+            transactionTemplate.executeWithoutResult(status ->
+                    consultationRepository.findById(consultationId).ifPresent(consultation -> {
+                        statisticsService.recordConsultationDeleted(
+                                consultation.getCreatedAt().toLocalDate(), imageFiles.size());
+                        fileStorageService.release(consultation.getImages());
+                        consultationRepository.delete(consultation);
+                    }));
+            throw e;
+        }
+
+        // Fase 3: gravar os resultados da IA
+        return transactionTemplate.execute(status -> saveAiResults(consultationId, imageIds, aiResponses));
+    }
+
+    /**
+     * Modo assíncrono: grava a consulta e as imagens, cria um job de inferência por
+     * imagem e retorna sem esperar a IA. Os resultados são gravados pelos workers
+     * do {@link InferenceQueueService}.
+     */
+    public ConsultationSubmissionResponse submitConsultation(ConsultationRequest request) throws IOException {
+        List<Long> imageIds = new ArrayList<>();
+        Long consultationId = storeConsultation(request, imageIds, new ArrayList<>());
+
+        List<Long> jobIds = transactionTemplate.execute(status -> imageIds.stream()
+                .map(imageId -> {
+                    InferenceJob job = new InferenceJob();
+                    job.setImage(imageRepository.getReferenceById(imageId));
+                    return inferenceJobRepository.save(job).getId();
+                })
+                .collect(Collectors.toList()));
+        inferenceQueueService.enqueue(jobIds);
+
+        return new ConsultationSubmissionResponse(consultationId, "PROCESSING",
+                "/api/medico/consultations/" + consultationId + "/status");
+    }
+
+    /**
+     * Fase 1 da criação: salva os arquivos e, numa transação curta, cria ou atualiza
+     * o paciente e grava a consulta e as imagens. Os IDs das imagens e os arquivos salvos
+     * são adicionados a {@code imageIds} e {@code storedFiles} na ordem do upload.
+     */
+    private Long storeConsultation(ConsultationRequest request, List<Long> imageIds,
+                                   List<FileStorageService.StoredFile> storedFiles) throws IOException {
+        Long medicoId = UserPrincipal.current().getId();
 
         if (request.getImages() == null || request.getImages().isEmpty()) {
             throw new RuntimeException("Pelo menos uma imagem é obrigatória");
         }
 
+        List<MultipartFile> imageFiles = request.getImages();
+        for (MultipartFile imageFile : imageFiles) {
+            FileStorageService.StoredFile stored = fileStorageService.storeFile(imageFile);
+            thumbnailService.generateAsync(stored.path());
+            storedFiles.add(stored);
+        }
+
+        return transactionTemplate.execute(status -> {
+            Consultation consultation = new Consultation();
+            consultation.setPatient(upsertPatient(request.getPatient()));
+            consultation.setMedico(userRepository.getReferenceById(medicoId));
+            consultation = consultationRepository.save(consultation);
+
+            List<Image> images = new ArrayList<>();
+            for (int i = 0; i < imageFiles.size(); i++) {
+                MultipartFile imageFile = imageFiles.get(i);
+                Image image = new Image();
+                image.setConsultation(consultation);
+                image.setFilePath(storedFiles.get(i).path());
+                image.setContentHash(storedFiles.get(i).sha256());
+                image.setFileName(imageFile.getOriginalFilename());
+                image.setFileSize(imageFile.getSize());
+                image.setContentType(imageFile.getContentType());
+                images.add(imageRepository.save(image));
+                imageIds.add(image.getId());
+            }
+            // Mantém o grafo em memória coerente caso a fase 3 rode no mesmo contexto de persistência
+            consultation.setImages(images);
+            fileStorageService.retain(images);
+            statisticsService.recordConsultationCreated(consultation.getCreatedAt().toLocalDate(), imageFiles.size());
+            return consultation.getId();
+        });
+    }
+
+    private Patient upsertPatient(PatientRequest patientRequest) {
         // Criar ou buscar paciente por CPF
-        Patient patient = patientRepository.findByCpf(request.getPatient().getCpf())
+        Patient patient = patientRepository.findByCpf(patientRequest.getCpf())
                 .orElse(null);
         
         if (patient == null) {
+            statisticsService.recordPatientCreated();
             patient = new Patient();
-            patient.setNome(request.getPatient().getNome());
-            patient.setCpf(request.getPatient().getCpf());
-            patient.setSexo(request.getPatient().getSexo());
-            patient.setDataNascimento(request.getPatient().getDataNascimento());
-            patient = patientRepository.save(patient);
+            patient.setNome(patientRequest.getNome());
+            patient.setCpf(patientRequest.getCpf());
+            patient.setSexo(patientRequest.getSexo());
+            patient.setDataNascimento(patientRequest.getDataNascimento());
         } else {
             // Atualizar dados do paciente se necessário
-            if (request.getPatient().getNome() != null && !request.getPatient().getNome().isEmpty()) {
-                patient.setNome(request.getPatient().getNome());
+            if (patientRequest.getNome() != null && !patientRequest.getNome().isEmpty()) {
+                patient.setNome(patientRequest.getNome());
             }
-            if (request.getPatient().getDataNascimento() != null) {
-                patient.setDataNascimento(request.getPatient().getDataNascimento());
+            if (patientRequest.getDataNascimento() != null) {
+                patient.setDataNascimento(patientRequest.getDataNascimento());
             }
-            patient = patientRepository.save(patient);
         }
+        return patientRepository.save(patient);
+    }
 
-        // Criar consulta
-        Consultation consultation = new Consultation();
-        consultation.setPatient(patient);
-        consultation.setMedico(medico);
+    private ConsultationResponse saveAiResults(Long consultationId, List<Long> imageIds,
+                                               List<AiPredictionResponse> aiResponses) {
+        Consultation consultation = consultationRepository.findByIdWithImages(consultationId);
+        if (consultation == null) {
+            throw new RuntimeException("Consulta não encontrada");
+        }
 
-        // Processar todas as imagens e analisar pela IA
-        String firstAiDiagnosis = null;
-        Double firstConfidence = null;
-        String firstMultClass = null;
-        Double firstMultClassConfidence = null;
+        Map<Long, Image> imagesById = consultation.getImages().stream()
+                .collect(Collectors.toMap(Image::getId, Function.identity()));
 
-        // Primeiro, salvar a consulta para obter o ID
-        consultation = consultationRepository.save(consultation);
+        AiPredictionResponse.Prediction firstPrediction = null;
+        for (int i = 0; i < imageIds.size(); i++) {
+            Image image = imagesById.get(imageIds.get(i));
+            if (image == null) {
+                continue;
+            }
 
-        for (MultipartFile imageFile : request.getImages()) {
-            // Salvar imagem
-            String filePath = fileStorageService.storeFile(imageFile);
-
-            // Integração com IA para cada imagem
-            AiPredictionResponse aiResponse = aiService.predict(imageFile);
-            
-            // Criar registro de imagem
-            Image image = new Image();
-            image.setConsultation(consultation);
-            image.setFilePath(filePath);
-            image.setFileName(imageFile.getOriginalFilename());
-            image.setFileSize(imageFile.getSize());
-            image.setContentType(imageFile.getContentType());
-            
             // Salvar diagnóstico da IA para cada imagem
-            if (aiResponse.getPredictions() != null && !aiResponse.getPredictions().isEmpty()) {
-                AiPredictionResponse.Prediction prediction = aiResponse.getPredictions().get(0);
-                image.setAiDiagnosis(prediction.getClassValue());
-                image.setConfidence(prediction.getProbabilidade());
-                
-                if (prediction.getMultClass() != null && !prediction.getMultClass().isEmpty()) {
-                    image.setMultClass(prediction.getMultClass());
-                    image.setMultClassConfidence(prediction.getProbabilidadeMultClass());
-                }
-                
-                // Usar o resultado da primeira imagem para o diagnóstico da consulta
-                if (firstAiDiagnosis == null) {
-                    firstAiDiagnosis = prediction.getClassValue();
-                    firstConfidence = prediction.getProbabilidade();
-                    if (prediction.getMultClass() != null && !prediction.getMultClass().isEmpty()) {
-                        firstMultClass = prediction.getMultClass();
-                        firstMultClassConfidence = prediction.getProbabilidadeMultClass();
-                    }
-                }
+            AiPredictionResponse.Prediction prediction = aiResultService.applyToImage(image, aiResponses.get(i));
+
+            // Usar o resultado da primeira imagem para o diagnóstico da consulta
+            if (firstPrediction == null && prediction != null) {
+                firstPrediction = prediction;
             }
-            
-            imageRepository.save(image);
         }
 
         // Definir diagnóstico da consulta baseado na primeira imagem
-        if (firstAiDiagnosis != null) {
-            consultation.setAiDiagnosis(firstAiDiagnosis);
-            consultation.setConfidence(firstConfidence);
-            if (firstMultClass != null) {
-                consultation.setMultClass(firstMultClass);
-                consultation.setMultClassConfidence(firstMultClassConfidence);
-            }
-            // Atualizar a consulta com o diagnóstico
-            consultation = consultationRepository.save(consultation);
+        if (firstPrediction != null) {
+            aiResultService.applyToConsultation(consultation, firstPrediction);
         }
 
         return mapToResponse(consultation);
@@ -142,15 +243,12 @@ public class ConsultationService {
 
     @Transactional
     public ConsultationResponse confirmDiagnosis(Long consultationId, ConfirmDiagnosisRequest request) {
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        String email = authentication.getName();
-        User medico = userRepository.findByEmail(email)
-                .orElseThrow(() -> new RuntimeException("Médico não encontrado"));
+        UserPrincipal medico = UserPrincipal.current();
 
         Consultation consultation = consultationRepository.findById(consultationId)
                 .orElseThrow(() -> new RuntimeException("Consulta não encontrada"));
 
-        if (!consultation.getMedico().getId().equals(medico.getId()) && medico.getRole() != User.Role.ADMIN) {
+        if (!consultation.getMedico().getId().equals(medico.getId()) && !medico.isAdmin()) {
             throw new RuntimeException("Você não tem permissão para confirmar esta consulta");
         }
 
@@ -158,6 +256,13 @@ public class ConsultationService {
             throw new RuntimeException("Diagnóstico final é obrigatório");
         }
 
+        // Como nas imagens, confirmedAt só muda quando o diagnóstico muda
+        LocalDateTime now = LocalDateTime.now();
+        statisticsService.recordConsultationConfirmed(consultation, request.getFinalDiagnosis().getValue(), now);
+        if (!Boolean.TRUE.equals(consultation.getConfirmed())
+                || !request.getFinalDiagnosis().getValue().equals(consultation.getFinalDiagnosis())) {
+            consultation.setConfirmedAt(now);
+        }
         consultation.setFinalDiagnosis(request.getFinalDiagnosis().getValue());
         consultation.setConfirmed(true);
         consultation = consultationRepository.save(consultation);
@@ -171,43 +276,69 @@ public class ConsultationService {
         return mapToResponse(consultationWithImages);
     }
 
-    public List<ConsultationResponse> getMyConsultations(String nome, String cpf) {
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        String email = authentication.getName();
-        User medico = userRepository.findByEmail(email)
-                .orElseThrow(() -> new RuntimeException("Médico não encontrado"));
+    /**
+     * Lista as consultas do médico logado em páginas de até {@code size} itens, da mais
+     * recente para a mais antiga. {@code cursor} é o nextCursor da página anterior.
+     * Lê apenas projeções (sem entidades gerenciadas): o médico, as consultas da página
+     * com o paciente e, numa única consulta adicional, as imagens da página.
+     */
+    @Transactional(readOnly = true)
+    public ConsultationPageResponse getMyConsultations(String nome, String cpf, String cursor, int size) {
+        UserPrincipal medico = UserPrincipal.current();
+
+        if (size < 1 || size > maxPageSize) {
+            throw new RuntimeException("Tamanho de página deve estar entre 1 e " + maxPageSize);
+        }
+
+        String nomeFilter = nome != null && !nome.trim().isEmpty() ? nome.trim() : null;
+        String cpfFilter = cpf != null && !cpf.trim().isEmpty() ? cpf.trim() : null;
 
-        List<Consultation> consultations;
-        
-        if ((nome != null && !nome.trim().isEmpty()) || (cpf != null && !cpf.trim().isEmpty())) {
-            // Usar filtros
-            consultations = consultationRepository.findByMedicoWithFilters(
-                medico,
-                nome != null && !nome.trim().isEmpty() ? nome.trim() : null,
-                cpf != null && !cpf.trim().isEmpty() ? cpf.trim() : null
-            );
+        // Busca um item a mais só para saber se existe próxima página
+        Pageable limit = PageRequest.of(0, size + 1);
+        List<ConsultationRow> consultations;
+        if (cursor == null || cursor.isEmpty()) {
+            consultations = consultationRepository.findFirstPageByMedico(medico.getId(), nomeFilter, cpfFilter, limit);
         } else {
-            // Sem filtros
-            consultations = consultationRepository.findByMedicoOrderByCreatedAtDesc(medico);
+            ConsultationCursor position = ConsultationCursor.decode(cursor);
+            consultations = consultationRepository.findPageByMedicoAfter(
+                    medico.getId(), nomeFilter, cpfFilter, position.createdAt(), position.id(), limit);
+        }
+
+        boolean hasMore = consultations.size() > size;
+        if (hasMore) {
+            consultations = consultations.subList(0, size);
+        }
+
+        Map<Long, List<ImageResponse>> imagesByConsultation = new HashMap<>();
+        if (!consultations.isEmpty()) {
+            List<Long> consultationIds = consultations.stream().map(ConsultationRow::getId).collect(Collectors.toList());
+            for (ImageRow image : imageRepository.findRowsByConsultationIds(consultationIds)) {
+                imagesByConsultation.computeIfAbsent(image.getConsultationId(), id -> new ArrayList<>())
+                        .add(mapToImageResponse(image));
+            }
         }
 
-        return consultations.stream()
-                .map(this::mapToResponse)
+        List<ConsultationResponse> content = consultations.stream()
+                .map(c -> mapToResponse(c, imagesByConsultation.getOrDefault(c.getId(), List.of())))
                 .collect(Collectors.toList());
+
+        String nextCursor = null;
+        if (hasMore) {
+            ConsultationRow last = consultations.get(consultations.size() - 1);
+            nextCursor = new ConsultationCursor(last.getCreatedAt(), last.getId()).encode();
+        }
+        return new ConsultationPageResponse(content, nextCursor, hasMore);
     }
 
     @Transactional
     public ImageResponse confirmImageDiagnosis(Long imageId, ConfirmImageDiagnosisRequest request) {
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        String email = authentication.getName();
-        User medico = userRepository.findByEmail(email)
-                .orElseThrow(() -> new RuntimeException("Médico não encontrado"));
+        UserPrincipal medico = UserPrincipal.current();
 
         Image image = imageRepository.findById(imageId)
                 .orElseThrow(() -> new RuntimeException("Imagem não encontrada"));
 
         Consultation consultation = image.getConsultation();
-        if (!consultation.getMedico().getId().equals(medico.getId()) && medico.getRole() != User.Role.ADMIN) {
+        if (!consultation.getMedico().getId().equals(medico.getId()) && !medico.isAdmin()) {
             throw new RuntimeException("Você não tem permissão para confirmar esta imagem");
         }
 
@@ -215,6 +346,17 @@ public class ConsultationService {
             throw new RuntimeException("Diagnóstico final é obrigatório");
         }
 
+        // confirmedAt só muda quando o diagnóstico muda, para a exportação incremental
+        // trazer apenas imagens novas ou reclassificadas
+        LocalDateTime now = LocalDateTime.now();
+        statisticsService.recordImageConfirmed(image, request.getFinalDiagnosis().getValue(), now);
+        if (!Boolean.TRUE.equals(image.getConfirmed())
+                || !request.getFinalDiagnosis().getValue().equals(image.getFinalDiagnosis())) {
+            image.setConfirmedAt(now);
+        }
+        if (image.getFirstConfirmedAt() == null) {
+            image.setFirstConfirmedAt(now);
+        }
         image.setFinalDiagnosis(request.getFinalDiagnosis().getValue());
         image.setConfirmed(true);
         image = imageRepository.save(image);
@@ -222,22 +364,48 @@ public class ConsultationService {
         return mapToImageResponse(image);
     }
 
+    @Transactional(readOnly = true)
     public ConsultationResponse getConsultationById(Long consultationId) {
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        String email = authentication.getName();
-        User medico = userRepository.findByEmail(email)
-                .orElseThrow(() -> new RuntimeException("Médico não encontrado"));
+        UserPrincipal medico = UserPrincipal.current();
 
-        Consultation consultation = consultationRepository.findByIdWithImages(consultationId);
-        if (consultation == null) {
-            throw new RuntimeException("Consulta não encontrada");
+        ConsultationRow consultation = consultationRepository.findRowById(consultationId)
+                .orElseThrow(() -> new RuntimeException("Consulta não encontrada"));
+
+        if (!consultation.getMedicoId().equals(medico.getId()) && !medico.isAdmin()) {
+            throw new RuntimeException("Você não tem permissão para acessar esta consulta");
         }
 
-        if (!consultation.getMedico().getId().equals(medico.getId()) && medico.getRole() != User.Role.ADMIN) {
+        List<ImageResponse> images = imageRepository.findRowsByConsultationIds(List.of(consultationId)).stream()
+                .map(this::mapToImageResponse)
+                .collect(Collectors.toList());
+        return mapToResponse(consultation, images);
+    }
+
+    @Transactional(readOnly = true)
+    public ConsultationStatusResponse getConsultationStatus(Long consultationId) {
+        UserPrincipal medico = UserPrincipal.current();
+
+        Consultation consultation = consultationRepository.findById(consultationId)
+                .orElseThrow(() -> new RuntimeException("Consulta não encontrada"));
+
+        if (!consultation.getMedico().getId().equals(medico.getId()) && !medico.isAdmin()) {
             throw new RuntimeException("Você não tem permissão para acessar esta consulta");
         }
 
-        return mapToResponse(consultation);
+        Map<InferenceJob.Status, Long> counts = new EnumMap<>(InferenceJob.Status.class);
+        for (Object[] row : inferenceJobRepository.countByStatusForConsultation(consultationId)) {
+            counts.put((InferenceJob.Status) row[0], (Long) row[1]);
+        }
+
+        long pending = counts.getOrDefault(InferenceJob.Status.PENDING, 0L)
+                + counts.getOrDefault(InferenceJob.Status.RUNNING, 0L);
+        long completed = counts.getOrDefault(InferenceJob.Status.DONE, 0L);
+        long failed = counts.getOrDefault(InferenceJob.Status.FAILED, 0L);
+
+        // Consultas criadas no modo síncrono não têm jobs e já estão completas
+        String status = pending > 0 ? "PROCESSING" : failed > 0 ? "FAILED" : "COMPLETED";
+        return new ConsultationStatusResponse(consultationId, status,
+                pending + completed + failed, pending, completed, failed);
     }
 
     private ConsultationResponse mapToResponse(Consultation consultation) {
@@ -263,6 +431,20 @@ public class ConsultationService {
         return response;
     }
 
+    private ConsultationResponse mapToResponse(ConsultationRow row, List<ImageResponse> images) {
+        PatientResponse patient = new PatientResponse(row.getPatientId(), row.getPatientNome(), row.getPatientCpf(),
+                row.getPatientSexo().name(), row.getPatientDataNascimento());
+        return new ConsultationResponse(row.getId(), patient, row.getAiDiagnosis(), row.getConfidence(),
+                row.getMultClass(), row.getMultClassConfidence(), row.getFinalDiagnosis(), row.getConfirmed(),
+                images, row.getCreatedAt());
+    }
+
+    private ImageResponse mapToImageResponse(ImageRow row) {
+        return new ImageResponse(row.getId(), row.getFileName(), row.getFilePath(), row.getFileSize(),
+                row.getContentType(), row.getAiDiagnosis(), row.getConfidence(), row.getMultClass(),
+                row.getMultClassConfidence(), row.getFinalDiagnosis(), row.getConfirmed(), row.getCreatedAt());
+    }
+
     private ImageResponse mapToImageResponse(Image image) {
         ImageResponse response = new ImageResponse();
         response.setId(image.getId());
@@ -289,5 +471,28 @@ public class ConsultationService {
         response.setDataNascimento(patient.getDataNascimento());
         return response;
     }
-}
 
+    /**
+     * Posição (createdAt, id) da última consulta de uma página, codificada em Base64
+     * URL-safe para ser devolvida ao cliente como nextCursor.
+     */
+    private record ConsultationCursor(LocalDateTime createdAt, Long id) {
+
+        String encode() {
+            String raw = createdAt + "|" + id;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static ConsultationCursor decode(String token) {
+            try {
+                String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+                int separator = raw.lastIndexOf('|');
+                return new ConsultationCursor(
+                        LocalDateTime.parse(raw.substring(0, separator)),
+                        Long.parseLong(raw.substring(separator + 1)));
+            } catch (RuntimeException e) {
+                throw new RuntimeException("Cursor inválido");
+            }
+        }
+    }
+}
@@ -0,0 +1,424 @@
+package com.ptmd.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ptmd.dto.ExportImageRow;
+import com.ptmd.repository.ImageRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Exportação do dataset (imagens confirmadas pelo médico + CSV) escrita direto no
+ * stream da resposta. As linhas vêm de uma query em stream com cursor, então a
+ * memória usada não depende do tamanho do dataset e nada é gravado em disco.
+ * Imagens JPEG/PNG entram sem compressão (STORED), com o CRC calculado em paralelo
+ * por um pool de workers; só CSV e manifest são comprimidos.
+ */
+@Service
+public class DatasetExportService {
+
+    private static final Logger log = LoggerFactory.getLogger(DatasetExportService.class);
+
+    @Autowired
+    private ImageRepository imageRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    // Tamanho do buffer usado para copiar cada arquivo para o ZIP
+    @Value("${app.export.buffer-size:262144}")
+    private int bufferSize;
+
+    // Confirmações mais recentes que isso ficam para a próxima exportação incremental
+    @Value("${app.export.watermark-lag-seconds:60}")
+    private long watermarkLagSeconds;
+
+    // Threads que leem e calculam o CRC das imagens (0 = número de processadores)
+    @Value("${app.export.workers:0}")
+    private int workers;
+
+    // Quantas imagens à frente do escritor os workers podem estar
+    @Value("${app.export.read-ahead:64}")
+    private int readAhead;
+
+    private TransactionTemplate readOnlyTransaction;
+    // Uma transação para as três passadas do ZIP: todas leem o mesmo snapshot
+    private TransactionTemplate snapshotTransaction;
+    private ExecutorService checksumExecutor;
+    private ThreadLocal<ByteBuffer> checksumBuffers;
+
+    @PostConstruct
+    public void init() {
+        this.readOnlyTransaction = new TransactionTemplate(transactionManager);
+        this.readOnlyTransaction.setReadOnly(true);
+        this.snapshotTransaction = new TransactionTemplate(transactionManager);
+        this.snapshotTransaction.setReadOnly(true);
+        this.snapshotTransaction.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+
+        int threads = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.checksumExecutor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "export-checksum-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.checksumBuffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(bufferSize));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        checksumExecutor.shutdownNow();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillConfirmedAt() {
+        Integer updated = transactionTemplate.execute(status -> imageRepository.backfillConfirmedAt());
+        if (updated != null && updated > 0) {
+            log.info("{} imagens confirmadas sem confirmed_at receberam a data de criação", updated);
+        }
+    }
+
+    public boolean hasConfirmedImages() {
+        return imageRepository.existsByConfirmedTrueAndAiDiagnosisIsNotNullAndFinalDiagnosisIsNotNull();
+    }
+
+    /**
+     * Valida o watermark de uma exportação anterior; null significa exportação completa.
+     */
+    public ExportWatermark parseWatermark(String since) {
+        return since == null || since.isEmpty() ? null : ExportWatermark.decode(since);
+    }
+
+    /**
+     * Escreve o ZIP com as imagens em {@code dataset/{imageId}_{patientId}_{diagnóstico}.ext},
+     * o {@code database.csv} e o {@code manifest.json} no final. Com {@code since}, só entram
+     * imagens confirmadas ou reclassificadas depois do watermark, e o manifest separa as
+     * adições das reclassificações. O manifest traz o watermark a usar na próxima exportação.
+     * Cada entrada é uma passada pelo cursor, todas limitadas ao mesmo instante final e
+     * dentro de uma única transação REPEATABLE READ: uma imagem reclassificada durante a
+     * exportação aparece com o mesmo rótulo (ou não aparece) nas imagens, no CSV e no manifest.
+     */
+    public void writeBackup(OutputStream out, ExportWatermark since) throws IOException {
+        try {
+            snapshotTransaction.executeWithoutResult(status -> {
+                try {
+                    writeZip(out, since);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void writeZip(OutputStream out, ExportWatermark since) throws IOException {
+        long start = System.currentTimeMillis();
+        LocalDateTime until = exportUntil();
+
+        ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(out, bufferSize));
+        ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+        long[] exported = new long[2];
+        ExportWatermark[] watermark = {since};
+
+        // Os workers leem e calculam o CRC das próximas imagens enquanto esta thread
+        // escreve as entradas, na ordem do cursor
+        Deque<PendingEntry> pending = new ArrayDeque<>();
+        try {
+            inStream(since, until, rows -> rows.forEach(row -> {
+                watermark[0] = new ExportWatermark(row.getConfirmedAt(), row.getImageId());
+                FileStorageService.BlobLocation location = fileStorageService.locate(row.getFilePath());
+                if (location == null) {
+                    return; // Pular se o arquivo não existir
+                }
+                boolean stored = isCompressedImage(row);
+                pending.add(new PendingEntry("dataset/" + datasetFileName(row), location, stored,
+                        stored ? checksumExecutor.submit(() -> checksum(location)) : null));
+                if (pending.size() >= readAhead) {
+                    writePending(pending.poll(), zos, buffer, exported);
+                }
+            }));
+            while (!pending.isEmpty()) {
+                writePending(pending.poll(), zos, buffer, exported);
+            }
+        } finally {
+            // Se a exportação falhar (ex.: cliente desconectou), descarta o que os workers ainda iam ler
+            pending.stream().filter(entry -> entry.checksum() != null)
+                    .forEach(entry -> entry.checksum().cancel(true));
+        }
+
+        zos.putNextEntry(new ZipEntry("database.csv"));
+        PrintWriter csvWriter = new PrintWriter(new OutputStreamWriter(zos, StandardCharsets.UTF_8));
+        csvWriter.println("Image ID,Patient ID,Model Prediction,Doctor Final Diagnosis");
+        inStream(since, until, rows -> rows.forEach(row -> {
+            if (!fileStorageService.fileExists(row.getFilePath())) {
+                return;
+            }
+            csvWriter.printf("%s,%d,%s,%s%n",
+                    row.getFileName() != null ? row.getFileName() : "unknown",
+                    row.getPatientId(),
+                    row.getAiDiagnosis() != null ? row.getAiDiagnosis() : "",
+                    row.getFinalDiagnosis() != null ? row.getFinalDiagnosis() : "");
+        }));
+        csvWriter.flush();
+        zos.closeEntry();
+
+        writeManifest(zos, since, watermark[0], until);
+
+        zos.finish();
+        zos.flush();
+        long elapsed = Math.max(1, System.currentTimeMillis() - start);
+        log.info("Exportação do dataset ({}) concluída: {} imagens, {} MB em {} ms ({} MB/s)",
+                since == null ? "completa" : "incremental", exported[0], exported[1] >> 20, elapsed,
+                (exported[1] >> 20) * 1000 / elapsed);
+    }
+
+    /**
+     * Escreve uma imagem no ZIP. JPEG e PNG já são comprimidos, então vão como STORED,
+     * com tamanho e CRC calculados antes pelos workers; o resto é comprimido (DEFLATED).
+     */
+    private void writePending(PendingEntry entry, ZipOutputStream zos, ByteBuffer buffer, long[] exported) {
+        try {
+            ZipEntry zipEntry = new ZipEntry(entry.name());
+            if (entry.stored()) {
+                FileChecksum checksum = entry.checksum().get();
+                zipEntry.setMethod(ZipEntry.STORED);
+                zipEntry.setSize(checksum.size());
+                zipEntry.setCompressedSize(checksum.size());
+                zipEntry.setCrc(checksum.crc());
+            }
+            exported[1] += addFileToZip(entry.location(), zipEntry, zos, buffer);
+            exported[0]++;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (ExecutionException e) {
+            throw new UncheckedIOException(new IOException("Erro ao ler " + entry.location().file(), e.getCause()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedIOException(new IOException("Exportação interrompida", e));
+        }
+    }
+
+    private FileChecksum checksum(FileStorageService.BlobLocation location) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = checksumBuffers.get();
+        long size = 0;
+        try (FileChannel channel = FileChannel.open(location.file(), StandardOpenOption.READ)) {
+            buffer.clear();
+            int read;
+            while ((read = readBlob(channel, location, buffer, size)) >= 0) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+                size += read;
+            }
+        }
+        return new FileChecksum(size, crc.getValue());
+    }
+
+    /**
+     * Leitura posicionada limitada ao trecho do blob (o arquivo inteiro ou parte de um segmento do pack).
+     */
+    private static int readBlob(FileChannel channel, FileStorageService.BlobLocation location, ByteBuffer buffer,
+                                long position) throws IOException {
+        long remaining = location.length() - position;
+        if (remaining <= 0) {
+            return -1;
+        }
+        if (buffer.remaining() > remaining) {
+            buffer.limit(buffer.position() + (int) remaining);
+        }
+        return channel.read(buffer, location.offset() + position);
+    }
+
+    private boolean isCompressedImage(ExportImageRow row) {
+        String extension = extension(row).toLowerCase();
+        return extension.equals(".jpg") || extension.equals(".jpeg") || extension.equals(".png");
+    }
+
+    private void writeManifest(ZipOutputStream zos, ExportWatermark since, ExportWatermark watermark,
+                               LocalDateTime until) throws IOException {
+        zos.putNextEntry(new ZipEntry("manifest.json"));
+        JsonGenerator json = objectMapper.getFactory().createGenerator(zos);
+        json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        json.writeStartObject();
+        json.writeStringField("type", since == null ? "full" : "delta");
+        json.writeStringField("since", since != null ? since.encode() : null);
+        json.writeStringField("watermark", watermark != null ? watermark.encode() : null);
+        json.writeStringField("until", until.toString());
+
+        long[] additions = new long[1];
+        long[] relabels = new long[1];
+        json.writeArrayFieldStart("entries");
+        inStream(since, until, rows -> rows.forEach(row -> {
+            if (!fileStorageService.fileExists(row.getFilePath())) {
+                return;
+            }
+            // Reclassificação: a imagem já tinha sido confirmada antes da exportação anterior
+            boolean relabel = since != null && row.getFirstConfirmedAt() != null
+                    && !row.getFirstConfirmedAt().isAfter(since.confirmedAt());
+            try {
+                json.writeStartObject();
+                json.writeNumberField("imageId", row.getImageId());
+                json.writeStringField("change", relabel ? "relabel" : "addition");
+                json.writeStringField("finalDiagnosis", row.getFinalDiagnosis());
+                json.writeStringField("file", "dataset/" + datasetFileName(row));
+                json.writeStringField("confirmedAt", row.getConfirmedAt().toString());
+                json.writeEndObject();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            (relabel ? relabels : additions)[0]++;
+        }));
+        json.writeEndArray();
+        json.writeNumberField("additions", additions[0]);
+        json.writeNumberField("relabels", relabels[0]);
+        json.writeEndObject();
+        json.flush();
+        zos.closeEntry();
+    }
+
+    /**
+     * Instante final de uma exportação. Confirmações dos últimos segundos ficam para a
+     * próxima: uma transação ainda não commitada com confirmed_at anterior ao watermark
+     * seria perdida.
+     */
+    LocalDateTime exportUntil() {
+        return LocalDateTime.now().minusSeconds(watermarkLagSeconds);
+    }
+
+    /**
+     * Passa as linhas exportáveis ao {@code consumer} dentro de uma transação somente
+     * leitura (ou da transação em andamento, como a do snapshot de {@link #writeBackup}).
+     */
+    void inStream(ExportWatermark since, LocalDateTime until,
+                          Consumer<Stream<ExportImageRow>> consumer) throws IOException {
+        try {
+            readOnlyTransaction.executeWithoutResult(status -> {
+                try (Stream<ExportImageRow> rows = since == null
+                        ? imageRepository.streamConfirmedImagesWithDiagnosis(until)
+                        : imageRepository.streamConfirmedImagesWithDiagnosisAfter(since.confirmedAt(), since.id(), until)) {
+                    consumer.accept(rows);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    String datasetFileName(ExportImageRow row) {
+        // Limpar o diagnóstico para usar como nome de arquivo (remover caracteres inválidos)
+        String safeDiagnosis = sanitizeFileName(row.getFinalDiagnosis() != null ? row.getFinalDiagnosis() : "Unknown");
+        // Criar nome do arquivo: {imageId}_{patientId}_{finalDiagnosis}.{ext}
+        return String.format("%d_%d_%s%s", row.getImageId(), row.getPatientId(), safeDiagnosis, extension(row));
+    }
+
+    String extension(ExportImageRow row) {
+        String originalFileName = row.getFileName();
+        if (originalFileName != null && originalFileName.contains(".")) {
+            return originalFileName.substring(originalFileName.lastIndexOf("."));
+        }
+        // Tentar obter extensão do contentType
+        if (row.getContentType() != null && row.getContentType().contains("png")) {
+            return ".png";
+        }
+        return ".jpg"; // Default
+    }
+
+    private String sanitizeFileName(String fileName) {
+        // Remover caracteres inválidos para nome de arquivo
+        return fileName.replaceAll("[^a-zA-Z0-9._-]", "_");
+    }
+
+    private long addFileToZip(FileStorageService.BlobLocation location, ZipEntry zipEntry, ZipOutputStream zos,
+                              ByteBuffer buffer) throws IOException {
+        long copied = 0;
+        try (FileChannel channel = FileChannel.open(location.file(), StandardOpenOption.READ)) {
+            zos.putNextEntry(zipEntry);
+            buffer.clear();
+            while (readBlob(channel, location, buffer, copied) >= 0) {
+                buffer.flip();
+                zos.write(buffer.array(), 0, buffer.limit());
+                copied += buffer.limit();
+                buffer.clear();
+            }
+            zos.closeEntry();
+        }
+        return copied;
+    }
+
+    private record PendingEntry(String name, FileStorageService.BlobLocation location, boolean stored,
+                                Future<FileChecksum> checksum) {
+    }
+
+    private record FileChecksum(long size, long crc) {
+    }
+
+    /**
+     * Posição (confirmedAt, id) da última imagem de uma exportação, codificada em Base64
+     * URL-safe. É o valor de {@code since} da exportação seguinte.
+     */
+    public record ExportWatermark(LocalDateTime confirmedAt, Long id) {
+
+        String encode() {
+            String raw = confirmedAt + "|" + id;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static ExportWatermark decode(String token) {
+            try {
+                String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+                int separator = raw.lastIndexOf('|');
+                return new ExportWatermark(
+                        LocalDateTime.parse(raw.substring(0, separator)),
+                        Long.parseLong(raw.substring(separator + 1)));
+            } catch (RuntimeException e) {
+                throw new RuntimeException("Watermark inválido");
+            }
+        }
+    }
+}
@@ -1,49 +1,415 @@
 package com.ptmd.service;
 
+import com.ptmd.entity.Image;
+import com.ptmd.entity.StoredBlob;
+import com.ptmd.repository.StoredBlobRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.UUID;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
+/**
+ * Armazenamento das imagens endereçado por conteúdo. O SHA-256 é calculado enquanto o
+ * upload é copiado para o disco e o arquivo fica em {@code <upload.dir>/ab/cd/<sha256>.ext};
+ * se o mesmo conteúdo já existe, a cópia nova é descartada e o arquivo existente é
+ * reaproveitado. A tabela stored_blobs conta quantas imagens apontam para cada arquivo.
+ *
+ * <p>Com {@code app.upload.backend=pack} os blobs novos vão para o {@link PackBlobStore}
+ * e o caminho gravado na imagem é {@code pack:<sha256>.ext}. Os dois formatos convivem:
+ * quem lê as imagens usa {@link #locate} ou {@link #loadResource}, nunca o caminho direto.
+ */
 @Service
 public class FileStorageService {
 
+    private static final Logger log = LoggerFactory.getLogger(FileStorageService.class);
+
+    private static final Pattern BLOB_NAME = Pattern.compile("[0-9a-f]{64}(\\.[A-Za-z0-9]+)?");
+    private static final Pattern EXTENSION = Pattern.compile("\\.[a-z0-9]{1,10}");
+    private static final int LOCK_STRIPES = 64;
+    private static final String PACK_PREFIX = "pack:";
+
+    @Autowired
+    private StoredBlobRepository storedBlobRepository;
+
     @Value("${app.upload.dir}")
     private String uploadDir;
 
-    public String storeFile(MultipartFile file) throws IOException {
+    // Blobs sem referência mais novos que isso não são apagados: o upload pode ainda não ter gravado a imagem
+    @Value("${app.upload.blob-grace-minutes:60}")
+    private long blobGraceMinutes;
+
+    @Value("${app.upload.blob-sweep-batch-size:500}")
+    private int blobSweepBatchSize;
+
+    // files = um arquivo por imagem; pack = segmentos grandes com índice (PackBlobStore)
+    @Value("${app.upload.backend:files}")
+    private String backend;
+
+    @Value("${app.upload.pack.dir:uploads/packs}")
+    private String packDir;
+
+    @Value("${app.upload.pack.segment-max-bytes:1073741824}")
+    private long packSegmentMaxBytes;
+
+    // Fração mínima de espaço morto para um segmento ser compactado
+    @Value("${app.upload.pack.compaction-threshold:0.3}")
+    private double packCompactionThreshold;
+
+    // Aberto quando o backend é pack ou quando já existem blobs em pack de antes de voltar para files
+    private PackBlobStore packStore;
+
+    // Serializa, por hash, a gravação de um blob e a sua remoção pela limpeza
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    public FileStorageService() {
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!"files".equals(backend) && !"pack".equals(backend)) {
+            throw new IllegalStateException("app.upload.backend inválido: " + backend + " (use files ou pack)");
+        }
+        if (usesPack() || PackBlobStore.exists(Paths.get(packDir))) {
+            packStore = PackBlobStore.open(Paths.get(packDir), packSegmentMaxBytes);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() throws IOException {
+        if (packStore != null) {
+            packStore.close();
+        }
+    }
+
+    /**
+     * Arquivo salvo por {@link #storeFile}: caminho gravado na imagem, SHA-256 e tamanho.
+     */
+    public record StoredFile(String path, String sha256, long size) {
+    }
+
+    /**
+     * Onde estão os bytes de uma imagem: o arquivo inteiro no backend files, ou um
+     * trecho de um segmento no backend pack.
+     */
+    public record BlobLocation(Path file, long offset, long length) {
+    }
+
+    public StoredFile storeFile(MultipartFile file) throws IOException {
         Path uploadPath = Paths.get(uploadDir);
+        Path tempDir = uploadPath.resolve(".tmp");
+        Files.createDirectories(tempDir);
+
+        String extension = extension(file.getOriginalFilename());
 
-        if (!Files.exists(uploadPath)) {
-            Files.createDirectories(uploadPath);
+        // Copia para um temporário no mesmo sistema de arquivos, calculando o hash no caminho
+        Path tempFile = tempDir.resolve(UUID.randomUUID() + ".part");
+        MessageDigest digest = sha256();
+        long size;
+        try (InputStream in = file.getInputStream();
+             OutputStream out = new DigestOutputStream(Files.newOutputStream(tempFile), digest)) {
+            size = in.transferTo(out);
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile);
+            throw e;
         }
+        return storeBlob(tempFile, HexFormat.of().formatHex(digest.digest()), size, extension, true);
+    }
 
-        String originalFilename = file.getOriginalFilename();
-        String extension = "";
-        if (originalFilename != null && originalFilename.contains(".")) {
-            extension = originalFilename.substring(originalFilename.lastIndexOf("."));
+    /**
+     * Coloca um arquivo já existente (upload anterior ao armazenamento por conteúdo) no
+     * backend configurado. O original não é apagado: quem chama faz isso depois de gravar
+     * o novo caminho na imagem. No backend files o blob é um hard link para o original,
+     * sem copiar os bytes.
+     */
+    public StoredFile importFile(Path source) throws IOException {
+        MessageDigest digest = sha256();
+        long size;
+        try (InputStream in = new DigestInputStream(Files.newInputStream(source), digest)) {
+            size = in.transferTo(OutputStream.nullOutputStream());
         }
+        return storeBlob(source, HexFormat.of().formatHex(digest.digest()), size,
+                extension(source.getFileName().toString()), false);
+    }
 
-        String filename = UUID.randomUUID().toString() + extension;
-        Path filePath = uploadPath.resolve(filename);
+    private StoredFile storeBlob(Path source, String hash, long size, String extension, boolean move)
+            throws IOException {
+        synchronized (lockFor(hash)) {
+            // Um blob já registrado mantém o caminho (e a extensão) da primeira gravação
+            String path = storedBlobRepository.findById(hash)
+                    .map(StoredBlob::getPath)
+                    .filter(existing -> locate(existing) != null)
+                    .orElse(null);
+            if (path == null && usesPack()) {
+                packStore.put(hash, source, size);
+                path = PACK_PREFIX + hash + extension;
+            } else if (path == null) {
+                Path target = blobPath(hash, extension);
+                if (!Files.exists(target)) {
+                    Files.createDirectories(target.getParent());
+                    if (move) {
+                        Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+                    } else {
+                        linkOrCopy(source, target);
+                    }
+                }
+                path = target.toString();
+            }
+            if (move) {
+                Files.deleteIfExists(source);
+            }
+            storedBlobRepository.touch(hash, path, size, LocalDateTime.now());
+            return new StoredFile(path, hash, size);
+        }
+    }
 
-        Files.copy(file.getInputStream(), filePath, StandardCopyOption.REPLACE_EXISTING);
+    private static void linkOrCopy(Path source, Path target) throws IOException {
+        try {
+            Files.createLink(target, source);
+        } catch (UnsupportedOperationException | IOException e) {
+            // Sistema de arquivos sem hard link (ou outro volume): copia para um temporário e renomeia
+            Path temp = target.resolveSibling(target.getFileName() + ".part");
+            Files.copy(source, temp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Conta as imagens como referências aos seus blobs. Deve ser chamado na transação que as grava.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void retain(Collection<Image> images) {
+        addReferences(images, 1);
+    }
+
+    /**
+     * Desconta as imagens removidas. O arquivo só é apagado pela limpeza, depois do período de carência.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void release(Collection<Image> images) {
+        addReferences(images, -1);
+    }
 
-        return filePath.toString();
+    private void addReferences(Collection<Image> images, long sign) {
+        Map<String, Long> countByHash = images.stream()
+                .map(Image::getContentHash)
+                .filter(Objects::nonNull)
+                .collect(Collectors.groupingBy(hash -> hash, Collectors.counting()));
+        countByHash.forEach((hash, count) -> storedBlobRepository.addReferences(hash, sign * count));
     }
 
-    public Path loadFile(String filePath) {
-        return Paths.get(filePath);
+    /**
+     * Localiza os bytes de uma imagem pelo caminho gravado nela. Retorna null se não existem.
+     */
+    public BlobLocation locate(String filePath) {
+        if (filePath.startsWith(PACK_PREFIX)) {
+            return packLocation(packStore != null ? packStore.get(packHash(filePath)) : null);
+        }
+        Path path = Paths.get(filePath);
+        try {
+            return new BlobLocation(path, 0, Files.size(path));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Localiza os bytes de um Resource devolvido por {@link #loadResource} ou
+     * {@link #loadBlobByName}: o próprio arquivo ou o trecho do segmento do pack.
+     * Retorna null para Resources que não estão em disco.
+     */
+    public BlobLocation locate(Resource resource) throws IOException {
+        if (resource.isFile()) {
+            return new BlobLocation(resource.getFile().toPath(), 0, resource.contentLength());
+        }
+        return packLocation(packStore != null ? packStore.entryOf(resource) : null);
+    }
+
+    private BlobLocation packLocation(PackBlobStore.Entry entry) {
+        return entry == null ? null
+                : new BlobLocation(packStore.segmentPath(entry.segment()), entry.offset(), entry.length());
+    }
+
+    /**
+     * A imagem como {@link Resource}, para quem lê em stream (IA, download). Retorna null se não existe.
+     */
+    public Resource loadResource(String filePath) {
+        if (filePath.startsWith(PACK_PREFIX)) {
+            return packStore != null ? packStore.resource(packHash(filePath), filePath.substring(PACK_PREFIX.length())) : null;
+        }
+        Resource resource = new FileSystemResource(filePath);
+        return resource.isReadable() ? resource : null;
     }
 
     public boolean fileExists(String filePath) {
-        return Files.exists(Paths.get(filePath));
+        return locate(filePath) != null;
     }
-}
 
+    /**
+     * SHA-256 do conteúdo, se {@code filename} é o nome de um blob ({@code <sha256>.ext} ou
+     * {@code pack:<sha256>.ext}); null para os nomes UUID dos uploads antigos.
+     */
+    public String contentHashOf(String filename) {
+        if (filename == null) {
+            return null;
+        }
+        if (filename.startsWith(PACK_PREFIX)) {
+            filename = filename.substring(PACK_PREFIX.length());
+        }
+        return BLOB_NAME.matcher(filename).matches() ? filename.substring(0, 64) : null;
+    }
+
+    /**
+     * Localiza um blob só pelo nome ({@code <sha256>.ext}), como o frontend pede em
+     * /api/files/by-name: primeiro no pack, depois na árvore ab/cd/. Retorna null se o
+     * nome não é de um blob ou se ele não existe.
+     */
+    public Resource loadBlobByName(String filename) {
+        // O frontend usa o último segmento do caminho, que no pack é o próprio "pack:<sha256>.ext"
+        if (filename.startsWith(PACK_PREFIX)) {
+            filename = filename.substring(PACK_PREFIX.length());
+        }
+        if (!BLOB_NAME.matcher(filename).matches()) {
+            return null;
+        }
+        Resource resource = loadResource(PACK_PREFIX + filename);
+        if (resource == null) {
+            resource = loadResource(Paths.get(uploadDir, filename.substring(0, 2), filename.substring(2, 4), filename)
+                    .toString());
+        }
+        return resource;
+    }
+
+    /**
+     * Recalcula as referências a partir da tabela de imagens e apaga os blobs que ficaram
+     * sem nenhuma imagem há mais que o período de carência.
+     */
+    @Scheduled(cron = "${app.upload.blob-sweep-cron:0 30 3 * * *}")
+    public void sweepUnreferencedBlobs() {
+        long start = System.currentTimeMillis();
+        storedBlobRepository.recountReferences();
+
+        LocalDateTime cutoff = LocalDateTime.now().minusMinutes(blobGraceMinutes);
+        long removed = 0;
+        long freedBytes = 0;
+        List<StoredBlob> batch;
+        int deletedInBatch;
+        do {
+            batch = storedBlobRepository.findUnreferenced(cutoff, PageRequest.of(0, blobSweepBatchSize));
+            deletedInBatch = 0;
+            for (StoredBlob blob : batch) {
+                synchronized (lockFor(blob.getSha256())) {
+                    if (storedBlobRepository.deleteIfUnreferenced(blob.getSha256(), cutoff) == 0) {
+                        continue;
+                    }
+                    deletedInBatch++;
+                    try {
+                        deleteBlob(blob.getPath());
+                        removed++;
+                        freedBytes += blob.getSize();
+                    } catch (IOException e) {
+                        log.warn("Não foi possível apagar o blob {}: {}", blob.getPath(), e.getMessage());
+                    }
+                }
+            }
+            // Um lote sem nenhuma remoção voltaria igual na próxima consulta
+        } while (batch.size() == blobSweepBatchSize && deletedInBatch > 0);
+
+        log.info("Limpeza de blobs: {} arquivos sem referência removidos ({} bytes) em {} ms",
+                removed, freedBytes, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Copia os blobs vivos dos segmentos com muito espaço morto (blobs apagados pela limpeza)
+     * para o segmento ativo e libera os segmentos antigos.
+     */
+    @Scheduled(cron = "${app.upload.pack.compaction-cron:0 0 4 * * *}")
+    public void compactPacks() {
+        if (packStore == null) {
+            return;
+        }
+        try {
+            packStore.compact(packCompactionThreshold);
+        } catch (IOException e) {
+            log.error("Falha na compactação do pack store", e);
+        }
+    }
+
+    private void deleteBlob(String path) throws IOException {
+        if (path.startsWith(PACK_PREFIX)) {
+            if (packStore != null) {
+                packStore.delete(packHash(path));
+            }
+        } else {
+            Files.deleteIfExists(Paths.get(path));
+        }
+    }
+
+    private boolean usesPack() {
+        return "pack".equals(backend);
+    }
+
+    private static String packHash(String path) {
+        return path.substring(PACK_PREFIX.length(), PACK_PREFIX.length() + 64);
+    }
+
+    private static String extension(String originalFilename) {
+        if (originalFilename != null && originalFilename.contains(".")) {
+            String extension = originalFilename.substring(originalFilename.lastIndexOf(".")).toLowerCase();
+            // A extensão faz parte do nome do blob; qualquer coisa além de letras e dígitos é descartada
+            if (EXTENSION.matcher(extension).matches()) {
+                return extension;
+            }
+        }
+        return "";
+    }
+
+    private Path blobPath(String hash, String extension) {
+        return Paths.get(uploadDir, hash.substring(0, 2), hash.substring(2, 4), hash + extension);
+    }
+
+    private Object lockFor(String hash) {
+        return locks[Math.floorMod(hash.hashCode(), LOCK_STRIPES)];
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
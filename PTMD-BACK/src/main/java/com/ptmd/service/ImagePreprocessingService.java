@@ -0,0 +1,104 @@
+package com.ptmd.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+/**
+ * Reduz a imagem para a resolução de entrada do modelo antes de enviá-la à IA.
+ * O classificador YOLO redimensiona tudo para o seu tamanho de entrada, então
+ * mandar a foto original do otoscópio só gasta rede e decodificação no Python.
+ * O arquivo original continua salvo em resolução cheia pelo {@link FileStorageService}.
+ */
+@Service
+public class ImagePreprocessingService {
+
+    private static final Logger log = LoggerFactory.getLogger(ImagePreprocessingService.class);
+
+    /**
+     * Imagem pronta para envio à IA.
+     */
+    public record PreparedImage(Resource resource, String contentType) {
+    }
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.ai-service.preprocess.enabled:true}")
+    private boolean enabled;
+
+    // Menor lado da imagem enviada; o YOLO de classificação usa 224 por padrão
+    @Value("${app.ai-service.preprocess.model-input-size:224}")
+    private int modelInputSize;
+
+    @Value("${app.ai-service.preprocess.jpeg-quality:0.9}")
+    private float jpegQuality;
+
+    private Counter originalBytes;
+    private Counter sentBytes;
+    private Timer duration;
+
+    @PostConstruct
+    public void init() {
+        this.originalBytes = Counter.builder("ptmd.ai.preprocess.bytes").tag("stage", "original")
+                .baseUnit("bytes").register(meterRegistry);
+        this.sentBytes = Counter.builder("ptmd.ai.preprocess.bytes").tag("stage", "sent")
+                .baseUnit("bytes").register(meterRegistry);
+        this.duration = Timer.builder("ptmd.ai.preprocess.duration").register(meterRegistry);
+    }
+
+    /**
+     * Decodifica a imagem uma vez, reduz o menor lado para {@code model-input-size}
+     * e recodifica em JPEG. Se a imagem já for pequena, não puder ser decodificada
+     * ou o resultado não for menor, a original é enviada como está.
+     */
+    public PreparedImage prepare(Resource image, String contentType) {
+        PreparedImage original = new PreparedImage(image, contentType);
+        if (!enabled) {
+            return original;
+        }
+
+        return duration.record(() -> {
+            try {
+                long originalSize = image.contentLength();
+                originalBytes.increment(originalSize);
+
+                BufferedImage decoded = ImageCodec.decode(image, modelInputSize, true);
+                if (decoded == null || Math.min(decoded.getWidth(), decoded.getHeight()) <= modelInputSize) {
+                    sentBytes.increment(originalSize);
+                    return original;
+                }
+
+                double scale = (double) modelInputSize / Math.min(decoded.getWidth(), decoded.getHeight());
+                byte[] encoded = ImageCodec.encodeJpeg(ImageCodec.resize(decoded, scale), jpegQuality);
+                if (encoded.length >= originalSize) {
+                    sentBytes.increment(originalSize);
+                    return original;
+                }
+
+                sentBytes.increment(encoded.length);
+                String filename = image.getFilename() != null ? image.getFilename() : "image.jpg";
+                return new PreparedImage(new ByteArrayResource(encoded) {
+                    @Override
+                    public String getFilename() {
+                        return filename;
+                    }
+                }, "image/jpeg");
+            } catch (IOException | RuntimeException e) {
+                log.warn("Não foi possível reduzir a imagem {}; enviando original: {}", image.getFilename(), e.getMessage());
+                return original;
+            }
+        });
+    }
+}
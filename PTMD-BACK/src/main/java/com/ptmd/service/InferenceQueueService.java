@@ -0,0 +1,215 @@
+package com.ptmd.service;
+
+import com.ptmd.dto.AiPredictionResponse;
+import com.ptmd.entity.Consultation;
+import com.ptmd.entity.Image;
+import com.ptmd.entity.InferenceJob;
+import com.ptmd.repository.ConsultationRepository;
+import com.ptmd.repository.InferenceJobRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.Resource;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fila de inferência das consultas enviadas em modo assíncrono. Os jobs ficam na
+ * tabela inference_jobs, então o que estava na fila é retomado após um restart;
+ * a fila em memória só controla o que os workers estão executando agora.
+ */
+@Service
+public class InferenceQueueService {
+
+    private static final Logger log = LoggerFactory.getLogger(InferenceQueueService.class);
+
+    @Autowired
+    private InferenceJobRepository inferenceJobRepository;
+
+    @Autowired
+    private ConsultationRepository consultationRepository;
+
+    @Autowired
+    private AiService aiService;
+
+    @Autowired
+    private AiResultService aiResultService;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${app.inference.workers:4}")
+    private int workers;
+
+    @Value("${app.inference.queue-capacity:200}")
+    private int queueCapacity;
+
+    @Value("${app.inference.max-attempts:3}")
+    private int maxAttempts;
+
+    // Espera antes da próxima tentativa de um job que falhou, dobrando a cada tentativa
+    @Value("${app.inference.retry-backoff-ms:5000}")
+    private long retryBackoffMs;
+
+    @Value("${app.inference.retry-backoff-max-ms:300000}")
+    private long retryBackoffMaxMs;
+
+    // Tempo máximo que um job fica RUNNING antes de ser considerado abandonado; deve ser
+    // bem maior que a duração de uma chamada à IA (espera no limitador + timeout)
+    @Value("${app.inference.lease-ms:600000}")
+    private long leaseMs;
+
+    private ThreadPoolExecutor executor;
+
+    // Jobs já entregues ao executor, para o sweep não enfileirar o mesmo job duas vezes
+    private final Set<Long> queued = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    public void init() {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "inference-worker-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // Jobs interrompidos ficam como RUNNING e voltam para PENDING quando o lease vence
+        executor.shutdownNow();
+    }
+
+    public void enqueue(List<Long> jobIds) {
+        for (Long jobId : jobIds) {
+            if (!queued.add(jobId)) {
+                continue;
+            }
+            try {
+                executor.execute(() -> process(jobId));
+            } catch (RejectedExecutionException e) {
+                // Fila cheia: o job continua PENDING no banco e será pego pelo próximo sweep
+                queued.remove(jobId);
+            }
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void recoverJobs() {
+        sweep();
+    }
+
+    /**
+     * Devolve à fila os jobs abandonados (RUNNING com lease vencido, de uma instância que
+     * caiu ou reiniciou) e entrega aos workers os PENDING que já podem rodar.
+     */
+    @Scheduled(fixedDelayString = "${app.inference.sweep-interval-ms:10000}")
+    public void sweep() {
+        LocalDateTime claimedBefore = LocalDateTime.now().minus(Duration.ofMillis(leaseMs));
+        Integer interrupted = transactionTemplate.execute(status -> inferenceJobRepository.releaseExpiredClaims(
+                InferenceJob.Status.RUNNING, InferenceJob.Status.PENDING, claimedBefore));
+        if (interrupted != null && interrupted > 0) {
+            log.info("{} jobs de inferência interrompidos voltaram para a fila", interrupted);
+        }
+
+        int freeSlots = executor.getQueue().remainingCapacity();
+        if (freeSlots == 0) {
+            return;
+        }
+        List<Long> pending = inferenceJobRepository.findDueIdsByStatus(
+                InferenceJob.Status.PENDING, LocalDateTime.now(), PageRequest.of(0, freeSlots));
+        enqueue(pending);
+    }
+
+    private void process(Long jobId) {
+        try {
+            Image image = transactionTemplate.execute(status -> {
+                if (inferenceJobRepository.claim(jobId, InferenceJob.Status.PENDING, InferenceJob.Status.RUNNING,
+                        LocalDateTime.now()) == 0) {
+                    return null;
+                }
+                return inferenceJobRepository.findByIdWithImage(jobId)
+                        .map(InferenceJob::getImage)
+                        .orElse(null);
+            });
+            if (image == null) {
+                return;
+            }
+
+            Resource imageResource = fileStorageService.loadResource(image.getFilePath());
+            if (imageResource == null) {
+                throw new RuntimeException("Arquivo da imagem não encontrado: " + image.getFilePath());
+            }
+            AiPredictionResponse aiResponse = aiService
+                    .predictAsync(imageResource, image.getContentType())
+                    .block();
+            // A IA responde 200 com predictions vazio e error preenchido quando a inferência
+            // falha; isso tem que passar pelo backoff como qualquer outra falha
+            if (aiResponse == null || aiResponse.getError() != null
+                    || aiResponse.getPredictions() == null || aiResponse.getPredictions().isEmpty()) {
+                throw new RuntimeException("IA não retornou predição: "
+                        + (aiResponse != null && aiResponse.getError() != null ? aiResponse.getError() : "resposta vazia"));
+            }
+
+            transactionTemplate.executeWithoutResult(status -> complete(jobId, aiResponse));
+        } catch (Exception e) {
+            log.warn("Falha no job de inferência {}: {}", jobId, e.getMessage());
+            transactionTemplate.executeWithoutResult(status -> fail(jobId, e));
+        } finally {
+            queued.remove(jobId);
+        }
+    }
+
+    private void complete(Long jobId, AiPredictionResponse aiResponse) {
+        InferenceJob job = inferenceJobRepository.findByIdWithImage(jobId)
+                .orElseThrow(() -> new RuntimeException("Job de inferência não encontrado"));
+
+        // Trava a consulta antes de gravar o resultado: o worker de outra imagem dela espera
+        // este commit e recalcula o diagnóstico já vendo esta imagem
+        Consultation consultation = consultationRepository.findByIdWithImagesForUpdate(
+                job.getImage().getConsultation().getId());
+        aiResultService.applyToImage(job.getImage(), aiResponse);
+        aiResultService.refreshConsultationDiagnosis(consultation);
+
+        job.setStatus(InferenceJob.Status.DONE);
+        job.setError(null);
+    }
+
+    private void fail(Long jobId, Exception e) {
+        inferenceJobRepository.findById(jobId).ifPresent(job -> {
+            String message = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+            job.setError(message.length() > 1000 ? message.substring(0, 1000) : message);
+            if (job.getAttempts() >= maxAttempts) {
+                job.setStatus(InferenceJob.Status.FAILED);
+                return;
+            }
+            // Volta para a fila só depois do backoff; o sweep a pega quando vencer
+            long backoff = Math.min(retryBackoffMaxMs, retryBackoffMs << Math.min(20, Math.max(0, job.getAttempts() - 1)));
+            job.setNextAttemptAt(LocalDateTime.now().plus(Duration.ofMillis(backoff)));
+            job.setStatus(InferenceJob.Status.PENDING);
+        });
+    }
+}
@@ -0,0 +1,37 @@
+package com.ptmd.service;
+
+import java.util.Arrays;
+
+/**
+ * Janela circular com as últimas latências observadas, usada para estimar o p95
+ * que dispara o pedido de hedge.
+ */
+class LatencyWindow {
+
+    private final long[] samples;
+    private int next;
+    private int count;
+
+    LatencyWindow(int size) {
+        this.samples = new long[size];
+    }
+
+    synchronized void record(long latencyNanos) {
+        samples[next] = latencyNanos;
+        next = (next + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+    }
+
+    /**
+     * Percentil das latências da janela, ou -1 se ainda houver menos de {@code minSamples}.
+     */
+    synchronized long percentile(double percentile, int minSamples) {
+        if (count < minSamples) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(samples, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile * count) - 1;
+        return sorted[Math.max(0, Math.min(index, count - 1))];
+    }
+}
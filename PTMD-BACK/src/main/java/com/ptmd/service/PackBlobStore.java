@@ -0,0 +1,545 @@
+package com.ptmd.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Armazenamento das imagens em arquivos de segmento grandes, no estilo do Haystack:
+ * cada blob é anexado ao segmento ativo ({@code segment-000001.pack}, ...) precedido de
+ * um cabeçalho com o hash e o tamanho, e o índice (hash → segmento, offset, tamanho) fica
+ * em memória. O índice é persistido em {@code index.idx} como um log de registros de
+ * tamanho fixo, lido com mmap na abertura. As leituras são posicionadas
+ * ({@link FileChannel#read(ByteBuffer, long)}) num canal compartilhado por segmento.
+ */
+class PackBlobStore implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(PackBlobStore.class);
+
+    // Cabeçalho de cada blob no segmento: magic, SHA-256, tamanho e 4 bytes livres
+    static final int HEADER_SIZE = 48;
+    private static final int MAGIC = 0x50544d44;
+
+    // Registro do índice: tipo, SHA-256, segmento, offset, tamanho e 11 bytes livres
+    private static final int RECORD_SIZE = 64;
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    // Fim já indexado do segmento ativo (o offset do registro), gravado ao reescrever o índice:
+    // o índice reescrito não tem os blobs apagados, que a recuperação reindexaria
+    private static final byte MARK = 3;
+    private static final String NO_HASH = "0".repeat(64);
+
+    private static final String INDEX_FILE = "index.idx";
+    private static final String SEGMENT_SUFFIX = ".pack";
+    // Segmentos compactados só são apagados na compactação seguinte, para não quebrar leituras em andamento
+    private static final String RETIRED_SUFFIX = ".retired";
+
+    record Entry(int segment, long offset, long length) {
+    }
+
+    private final Path directory;
+    private final long maxSegmentBytes;
+    private final Map<String, Entry> index = new ConcurrentHashMap<>();
+    private final Map<Integer, FileChannel> segments = new ConcurrentHashMap<>();
+    private final Map<Integer, FileChannel> retired = new ConcurrentHashMap<>();
+    // Bytes (com cabeçalho) ainda referenciados pelo índice em cada segmento
+    private final Map<Integer, AtomicLong> liveBytes = new ConcurrentHashMap<>();
+    private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+
+    private FileChannel indexChannel;
+    private int activeSegment;
+    private long activeSize;
+
+    private PackBlobStore(Path directory, long maxSegmentBytes) {
+        this.directory = directory;
+        this.maxSegmentBytes = maxSegmentBytes;
+    }
+
+    static PackBlobStore open(Path directory, long maxSegmentBytes) throws IOException {
+        Files.createDirectories(directory);
+        PackBlobStore store = new PackBlobStore(directory, maxSegmentBytes);
+        store.load();
+        return store;
+    }
+
+    static boolean exists(Path directory) {
+        return Files.exists(directory.resolve(INDEX_FILE));
+    }
+
+    private void load() throws IOException {
+        long start = System.currentTimeMillis();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "segment-*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                segments.put(segmentNumber(file),
+                        FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE));
+            }
+        }
+        activeSegment = segments.keySet().stream().mapToInt(Integer::intValue).max().orElse(1);
+        if (!segments.containsKey(activeSegment)) {
+            segments.put(activeSegment, openSegment(activeSegment));
+        }
+
+        Path indexFile = directory.resolve(INDEX_FILE);
+        indexChannel = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        // Um registro incompleto no fim (queda no meio da escrita) é descartado
+        long validSize = indexChannel.size() - indexChannel.size() % RECORD_SIZE;
+        long indexedEnd = 0;
+        if (validSize > 0) {
+            MappedByteBuffer mapped = indexChannel.map(FileChannel.MapMode.READ_ONLY, 0, validSize);
+            byte[] hash = new byte[32];
+            while (mapped.remaining() >= RECORD_SIZE) {
+                int recordStart = mapped.position();
+                byte type = mapped.get();
+                mapped.get(hash);
+                Entry entry = new Entry(mapped.getInt(), mapped.getLong(), mapped.getLong());
+                mapped.position(recordStart + RECORD_SIZE);
+                String key = HexFormat.of().formatHex(hash);
+                if (type == PUT) {
+                    index.put(key, entry);
+                    if (entry.segment() == activeSegment) {
+                        indexedEnd = Math.max(indexedEnd, entry.offset() + entry.length());
+                    }
+                } else if (type == DELETE) {
+                    index.remove(key);
+                } else if (type == MARK && entry.segment() == activeSegment) {
+                    indexedEnd = Math.max(indexedEnd, entry.offset());
+                }
+            }
+        }
+        indexChannel.truncate(validSize);
+        indexChannel.position(validSize);
+
+        recoverActiveSegment(indexedEnd);
+
+        for (Entry entry : index.values()) {
+            liveBytes.computeIfAbsent(entry.segment(), segment -> new AtomicLong())
+                    .addAndGet(HEADER_SIZE + entry.length());
+        }
+        log.info("Pack store aberto em {}: {} blobs em {} segmentos ({} ms)", directory, index.size(),
+                segments.size(), System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Reindexa os blobs gravados no segmento ativo depois do último registro do índice
+     * (queda entre a escrita do blob e a do índice) e descarta uma cauda incompleta.
+     */
+    private void recoverActiveSegment(long indexedEnd) throws IOException {
+        FileChannel channel = segments.get(activeSegment);
+        long position = indexedEnd;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        byte[] hash = new byte[32];
+        int recovered = 0;
+        while (position + HEADER_SIZE <= channel.size()) {
+            header.clear();
+            readFully(channel, header, position);
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                break;
+            }
+            header.get(hash);
+            long length = header.getLong();
+            if (length < 0 || position + HEADER_SIZE + length > channel.size()) {
+                break;
+            }
+            Entry entry = new Entry(activeSegment, position + HEADER_SIZE, length);
+            String key = HexFormat.of().formatHex(hash);
+            index.put(key, entry);
+            appendRecord(PUT, key, entry);
+            position += HEADER_SIZE + length;
+            recovered++;
+        }
+        if (channel.size() > position) {
+            channel.truncate(position);
+        }
+        activeSize = position;
+        if (recovered > 0) {
+            log.warn("Pack store: {} blobs do segmento {} reindexados após queda", recovered, activeSegment);
+        }
+    }
+
+    boolean contains(String hash) {
+        return index.containsKey(hash);
+    }
+
+    Entry get(String hash) {
+        return index.get(hash);
+    }
+
+    /**
+     * Arquivo do segmento; para um segmento já compactado, o nome com {@code .retired}, que
+     * continua válido para quem obteve a entrada antes da compactação (um sendfile em curso).
+     */
+    Path segmentPath(int segment) {
+        Path file = directory.resolve(String.format("segment-%06d%s", segment, SEGMENT_SUFFIX));
+        return retired.containsKey(segment) ? file.resolveSibling(file.getFileName() + RETIRED_SUFFIX) : file;
+    }
+
+    /**
+     * Anexa o conteúdo de {@code source} ao segmento ativo. Retorna false se o hash já está no índice.
+     */
+    synchronized boolean put(String hash, Path source, long size) throws IOException {
+        if (index.containsKey(hash)) {
+            return false;
+        }
+        if (activeSize > 0 && activeSize + HEADER_SIZE + size > maxSegmentBytes) {
+            segments.get(activeSegment).force(false);
+            activeSegment++;
+            segments.put(activeSegment, openSegment(activeSegment));
+            activeSize = 0;
+        }
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ)) {
+            Entry entry = append(hash, in, 0, size);
+            // Os bytes vão para o disco antes do registro: um registro no índice (e a linha em
+            // stored_blobs gravada depois) nunca aponta para um blob que a queda levou
+            segments.get(activeSegment).force(false);
+            index.put(hash, entry);
+            appendRecord(PUT, hash, entry);
+        }
+        return true;
+    }
+
+    /**
+     * Remove o blob do índice. O espaço no segmento só é recuperado pela compactação.
+     */
+    synchronized boolean delete(String hash) throws IOException {
+        Entry entry = index.remove(hash);
+        if (entry == null) {
+            return false;
+        }
+        appendRecord(DELETE, hash, entry);
+        liveBytes.get(entry.segment()).addAndGet(-(HEADER_SIZE + entry.length()));
+        return true;
+    }
+
+    /**
+     * Lê a partir de {@code position} (relativa ao início do blob), como {@link FileChannel#read(ByteBuffer, long)}.
+     */
+    int read(Entry entry, ByteBuffer buffer, long position) throws IOException {
+        if (position >= entry.length()) {
+            return -1;
+        }
+        int limit = buffer.limit();
+        buffer.limit((int) Math.min(limit, buffer.position() + entry.length() - position));
+        try {
+            return channel(entry.segment()).read(buffer, entry.offset() + position);
+        } finally {
+            buffer.limit(limit);
+        }
+    }
+
+    AbstractResource resource(String hash, String filename) {
+        Entry entry = index.get(hash);
+        return entry == null ? null : new BlobResource(entry, filename);
+    }
+
+    /**
+     * Entrada de um Resource devolvido por {@link #resource}; null para qualquer outro Resource.
+     */
+    Entry entryOf(Resource resource) {
+        return resource instanceof BlobResource blob ? blob.entry : null;
+    }
+
+    private FileChannel channel(int segment) throws IOException {
+        FileChannel channel = segments.get(segment);
+        if (channel == null) {
+            channel = retired.get(segment);
+        }
+        if (channel == null) {
+            throw new IOException("Segmento não encontrado: " + segment);
+        }
+        return channel;
+    }
+
+    /**
+     * Copia os blobs ainda referenciados dos segmentos selados com fração de lixo acima de
+     * {@code threshold} para o segmento ativo e reescreve o índice só com os blobs vivos.
+     * Os segmentos compactados são renomeados e apagados na execução seguinte.
+     */
+    void compact(double threshold) throws IOException {
+        long start = System.currentTimeMillis();
+        deleteRetiredSegments();
+
+        // Um put concorrente pode abrir um segmento novo durante a varredura; ele e o ativo
+        // lido aqui têm número maior ou igual, e nenhum dos dois pode ser compactado
+        int active;
+        synchronized (this) {
+            active = activeSegment;
+        }
+        List<Integer> candidates = new ArrayList<>();
+        long reclaimed = 0;
+        for (Map.Entry<Integer, FileChannel> segment : segments.entrySet()) {
+            int number = segment.getKey();
+            if (number >= active) {
+                continue;
+            }
+            long size = segment.getValue().size();
+            long live = liveBytes.getOrDefault(number, new AtomicLong()).get();
+            if (size > 0 && (double) (size - live) / size >= threshold) {
+                candidates.add(number);
+                reclaimed += size - live;
+            }
+        }
+
+        for (int segment : candidates) {
+            List<String> hashes = index.entrySet().stream()
+                    .filter(entry -> entry.getValue().segment() == segment)
+                    .map(Map.Entry::getKey)
+                    .toList();
+            for (String hash : hashes) {
+                moveToActive(hash, segment);
+            }
+            retireSegment(segment);
+        }
+        rewriteIndex();
+
+        if (!candidates.isEmpty()) {
+            log.info("Pack store compactado: {} segmentos, {} MB recuperados em {} ms", candidates.size(),
+                    reclaimed >> 20,
+                    System.currentTimeMillis() - start);
+        }
+    }
+
+    private synchronized void moveToActive(String hash, int segment) throws IOException {
+        Entry entry = index.get(hash);
+        if (entry == null || entry.segment() != segment) {
+            return; // Removido ou já movido enquanto a compactação andava
+        }
+        if (activeSize > 0 && activeSize + HEADER_SIZE + entry.length() > maxSegmentBytes) {
+            segments.get(activeSegment).force(false);
+            activeSegment++;
+            segments.put(activeSegment, openSegment(activeSegment));
+            activeSize = 0;
+        }
+        Entry moved = append(hash, channel(segment), entry.offset(), entry.length());
+        index.put(hash, moved);
+        appendRecord(PUT, hash, moved);
+    }
+
+    private synchronized void retireSegment(int segment) throws IOException {
+        // As cópias feitas por moveToActive precisam estar no disco antes de o original sair
+        segments.get(activeSegment).force(false);
+        liveBytes.remove(segment);
+        Path file = segmentPath(segment);
+        // O canal continua aberto (e o arquivo existe com outro nome) até a próxima compactação.
+        // Entra em retired antes de sair de segments, para channel() nunca ficar sem ele
+        Files.move(file, file.resolveSibling(file.getFileName() + RETIRED_SUFFIX), StandardCopyOption.ATOMIC_MOVE);
+        retired.put(segment, segments.get(segment));
+        segments.remove(segment);
+    }
+
+    private synchronized void deleteRetiredSegments() throws IOException {
+        for (FileChannel channel : retired.values()) {
+            channel.close();
+        }
+        retired.clear();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + RETIRED_SUFFIX)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Substitui o log do índice por um com um registro PUT por blob vivo e um MARK com o
+     * fim do segmento ativo.
+     */
+    private synchronized void rewriteIndex() throws IOException {
+        segments.get(activeSegment).force(false);
+        Path temp = directory.resolve(INDEX_FILE + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 1024);
+            for (Map.Entry<String, Entry> entry : index.entrySet()) {
+                if (buffer.remaining() < RECORD_SIZE) {
+                    buffer.flip();
+                    writeFully(out, buffer);
+                    buffer.clear();
+                }
+                writeRecord(buffer, PUT, entry.getKey(), entry.getValue());
+            }
+            if (buffer.remaining() < RECORD_SIZE) {
+                buffer.flip();
+                writeFully(out, buffer);
+                buffer.clear();
+            }
+            writeRecord(buffer, MARK, NO_HASH, new Entry(activeSegment, activeSize, 0));
+            buffer.flip();
+            writeFully(out, buffer);
+            out.force(true);
+        }
+        indexChannel.close();
+        Files.move(temp, directory.resolve(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        indexChannel = FileChannel.open(directory.resolve(INDEX_FILE), StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        indexChannel.position(indexChannel.size());
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (FileChannel channel : segments.values()) {
+            channel.force(false);
+            channel.close();
+        }
+        for (FileChannel channel : retired.values()) {
+            channel.close();
+        }
+        indexChannel.force(false);
+        indexChannel.close();
+    }
+
+    private Entry append(String hash, FileChannel source, long sourceOffset, long size) throws IOException {
+        FileChannel channel = segments.get(activeSegment);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).put(HexFormat.of().parseHex(hash)).putLong(size);
+        header.clear();
+        long position = activeSize;
+        while (header.hasRemaining()) {
+            position += channel.write(header, position);
+        }
+        long copied = 0;
+        while (copied < size) {
+            source.position(sourceOffset + copied);
+            long count = channel.transferFrom(source, position + copied, size - copied);
+            if (count <= 0) {
+                throw new IOException("Blob mudou de tamanho durante a gravação: " + hash);
+            }
+            copied += count;
+        }
+        activeSize = position + size;
+        liveBytes.computeIfAbsent(activeSegment, segment -> new AtomicLong()).addAndGet(HEADER_SIZE + size);
+        return new Entry(activeSegment, position, size);
+    }
+
+    private void appendRecord(byte type, String hash, Entry entry) throws IOException {
+        record.clear();
+        writeRecord(record, type, hash, entry);
+        record.flip();
+        writeFully(indexChannel, record);
+    }
+
+    private static void writeRecord(ByteBuffer buffer, byte type, String hash, Entry entry) {
+        int start = buffer.position();
+        buffer.put(type).put(HexFormat.of().parseHex(hash))
+                .putInt(entry.segment()).putLong(entry.offset()).putLong(entry.length());
+        buffer.position(start + RECORD_SIZE);
+    }
+
+    private FileChannel openSegment(int segment) throws IOException {
+        return FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Blob do pack exposto como {@link org.springframework.core.io.Resource}, lido em
+     * leituras posicionadas no canal compartilhado do segmento.
+     */
+    private class BlobResource extends AbstractResource {
+
+        private final Entry entry;
+        private final String filename;
+
+        BlobResource(Entry entry, String filename) {
+            this.entry = entry;
+            this.filename = filename;
+        }
+
+        @Override
+        public String getDescription() {
+            return "Blob " + filename + " no pack " + directory;
+        }
+
+        @Override
+        public String getFilename() {
+            return filename;
+        }
+
+        @Override
+        public boolean exists() {
+            return true;
+        }
+
+        @Override
+        public long contentLength() {
+            return entry.length();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new InputStream() {
+                private long position;
+
+                @Override
+                public int read() throws IOException {
+                    byte[] one = new byte[1];
+                    return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+                }
+
+                @Override
+                public int read(byte[] bytes, int offset, int length) throws IOException {
+                    if (length == 0) {
+                        return 0;
+                    }
+                    int read = PackBlobStore.this.read(entry, ByteBuffer.wrap(bytes, offset, length), position);
+                    if (read > 0) {
+                        position += read;
+                    }
+                    return read;
+                }
+
+                @Override
+                public long skip(long n) {
+                    long skipped = Math.max(0, Math.min(n, entry.length() - position));
+                    position += skipped;
+                    return skipped;
+                }
+
+                @Override
+                public int available() {
+                    return (int) Math.min(Integer.MAX_VALUE, entry.length() - position);
+                }
+            };
+        }
+    }
+
+    private static int segmentNumber(Path file) {
+        String name = file.getFileName().toString();
+        return Integer.parseInt(name.substring("segment-".length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Fim inesperado do segmento");
+            }
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
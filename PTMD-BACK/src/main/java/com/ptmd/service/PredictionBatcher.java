@@ -0,0 +1,169 @@
+package com.ptmd.service;
+
+import com.ptmd.dto.AiPredictionResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Agrupa predições de consultas concorrentes em lotes de até {@code maxBatchSize}
+ * imagens ou {@code linger}, o que vier primeiro, e envia cada lote numa única
+ * requisição ao endpoint de lote da IA. Se o endpoint de lote não existir no
+ * serviço Python, as imagens voltam a ser enviadas uma a uma por um tempo.
+ */
+class PredictionBatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(PredictionBatcher.class);
+
+    record PendingPrediction(Resource image, String contentType, Sinks.One<AiPredictionResponse> sink) {
+    }
+
+    /**
+     * Lançada quando o serviço de IA não oferece o endpoint de lote (404, 405 ou 501).
+     */
+    static class BatchUnavailableException extends RuntimeException {
+        BatchUnavailableException(String message) {
+            super(message);
+        }
+    }
+
+    private final int maxBatchSize;
+    private final Duration linger;
+    private final Duration unavailableCooldown;
+    private final Function<List<PendingPrediction>, Mono<List<AiPredictionResponse>>> batchCall;
+    private final BiFunction<Resource, String, Mono<AiPredictionResponse>> singleCall;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ai-batcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private List<PendingPrediction> buffer = new ArrayList<>();
+    private ScheduledFuture<?> lingerTask;
+    private volatile long batchUnavailableUntil;
+
+    PredictionBatcher(int maxBatchSize, Duration linger, Duration unavailableCooldown,
+                      Function<List<PendingPrediction>, Mono<List<AiPredictionResponse>>> batchCall,
+                      BiFunction<Resource, String, Mono<AiPredictionResponse>> singleCall) {
+        this.maxBatchSize = maxBatchSize;
+        this.linger = linger;
+        this.unavailableCooldown = unavailableCooldown;
+        this.batchCall = batchCall;
+        this.singleCall = singleCall;
+    }
+
+    Mono<AiPredictionResponse> submit(Resource image, String contentType) {
+        if (System.currentTimeMillis() < batchUnavailableUntil) {
+            return singleCall.apply(image, contentType);
+        }
+
+        return Mono.defer(() -> {
+            Sinks.One<AiPredictionResponse> sink = Sinks.one();
+            add(new PendingPrediction(image, contentType, sink));
+            return sink.asMono();
+        });
+    }
+
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private void add(PendingPrediction pending) {
+        List<PendingPrediction> full = null;
+        synchronized (this) {
+            buffer.add(pending);
+            if (buffer.size() >= maxBatchSize) {
+                full = drain();
+            } else if (buffer.size() == 1) {
+                lingerTask = scheduler.schedule(this::flush, linger.toMillis(), TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full != null) {
+            dispatch(full);
+        }
+    }
+
+    private void flush() {
+        List<PendingPrediction> batch;
+        synchronized (this) {
+            batch = drain();
+        }
+        if (!batch.isEmpty()) {
+            dispatch(batch);
+        }
+    }
+
+    // Chamado com o lock do batcher
+    private List<PendingPrediction> drain() {
+        if (lingerTask != null) {
+            lingerTask.cancel(false);
+            lingerTask = null;
+        }
+        List<PendingPrediction> batch = buffer;
+        buffer = new ArrayList<>();
+        return batch;
+    }
+
+    private void dispatch(List<PendingPrediction> batch) {
+        if (batch.size() == 1) {
+            sendSingle(batch.get(0));
+            return;
+        }
+
+        // Nenhuma imagem do lote pode ficar sem resposta: quem espera o sink bloqueia sem timeout
+        AtomicBoolean answered = new AtomicBoolean();
+        batchCall.apply(batch).subscribe(
+                results -> {
+                    answered.set(true);
+                    if (results == null || results.size() != batch.size()) {
+                        log.warn("Lote da IA retornou {} resultados para {} imagens; reenviando individualmente",
+                                results == null ? 0 : results.size(), batch.size());
+                        batch.forEach(this::sendSingle);
+                        return;
+                    }
+                    for (int i = 0; i < batch.size(); i++) {
+                        // Um resultado nulo completaria o sink vazio; essa imagem vai sozinha
+                        if (results.get(i) != null) {
+                            batch.get(i).sink().tryEmitValue(results.get(i));
+                        } else {
+                            sendSingle(batch.get(i));
+                        }
+                    }
+                },
+                error -> {
+                    if (error instanceof BatchUnavailableException) {
+                        batchUnavailableUntil = System.currentTimeMillis() + unavailableCooldown.toMillis();
+                        log.warn("Endpoint de lote da IA indisponível; usando chamadas individuais por {}s",
+                                unavailableCooldown.toSeconds());
+                    }
+                    batch.forEach(this::sendSingle);
+                },
+                () -> {
+                    if (!answered.get()) {
+                        log.warn("Lote da IA terminou sem resposta para {} imagens; reenviando individualmente",
+                                batch.size());
+                        batch.forEach(this::sendSingle);
+                    }
+                });
+    }
+
+    private void sendSingle(PendingPrediction pending) {
+        singleCall.apply(pending.image(), pending.contentType()).subscribe(
+                response -> pending.sink().tryEmitValue(response),
+                error -> pending.sink().tryEmitError(error));
+    }
+}
@@ -0,0 +1,254 @@
+package com.ptmd.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ptmd.dto.AiPredictionResponse;
+import com.ptmd.entity.PredictionCacheEntry;
+import com.ptmd.repository.PredictionCacheRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDateTime;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Cache de predições da IA indexado pelo SHA-256 dos bytes da imagem e pela versão
+ * do modelo. O primeiro nível é um LRU em memória com TTL; o segundo é a tabela
+ * prediction_cache, que sobrevive a restarts e é limpa periodicamente. Trocar
+ * app.ai-service.model-version invalida os dois níveis.
+ */
+@Service
+public class PredictionCacheService {
+
+    private static final Logger log = LoggerFactory.getLogger(PredictionCacheService.class);
+
+    @Autowired
+    private PredictionCacheRepository predictionCacheRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.ai-service.model-version:v1}")
+    private String modelVersion;
+
+    @Value("${app.ai-service.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.ai-service.cache.max-entries:10000}")
+    private int maxEntries;
+
+    @Value("${app.ai-service.cache.ttl-minutes:1440}")
+    private long ttlMinutes;
+
+    @Value("${app.ai-service.cache.persistent:true}")
+    private boolean persistent;
+
+    // Idade máxima de uma predição na tabela prediction_cache
+    @Value("${app.ai-service.cache.persistent-ttl-days:90}")
+    private long persistentTtlDays;
+
+    private Map<String, CachedPrediction> memory;
+
+    private Counter memoryHits;
+    private Counter databaseHits;
+    private Counter misses;
+    private Counter evictions;
+
+    @PostConstruct
+    public void init() {
+        this.memory = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedPrediction> eldest) {
+                if (size() > maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        this.memoryHits = Counter.builder("ptmd.ai.cache.requests").tag("result", "hit").tag("tier", "memory")
+                .register(meterRegistry);
+        this.databaseHits = Counter.builder("ptmd.ai.cache.requests").tag("result", "hit").tag("tier", "database")
+                .register(meterRegistry);
+        this.misses = Counter.builder("ptmd.ai.cache.requests").tag("result", "miss").tag("tier", "none")
+                .register(meterRegistry);
+        this.evictions = Counter.builder("ptmd.ai.cache.evictions").register(meterRegistry);
+        Gauge.builder("ptmd.ai.cache.size", this, cache -> cache.memorySize()).register(meterRegistry);
+
+        if (enabled && persistent) {
+            int removed = predictionCacheRepository.deleteOtherModelVersions(modelVersion);
+            if (removed > 0) {
+                log.info("{} predições em cache de outras versões do modelo removidas", removed);
+            }
+        }
+    }
+
+    /**
+     * Apaga do cache persistente as predições de outras versões do modelo (deixadas por
+     * uma instância que ainda rodava a versão anterior num deploy gradual) e as mais
+     * antigas que app.ai-service.cache.persistent-ttl-days.
+     */
+    @Scheduled(cron = "${app.ai-service.cache.purge-cron:0 15 4 * * *}")
+    public void purgePersistent() {
+        if (!enabled || !persistent) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        int otherVersions = predictionCacheRepository.deleteOtherModelVersions(modelVersion);
+        int expired = predictionCacheRepository.deleteCreatedBefore(persistentCutoff());
+        log.info("Limpeza do cache de predições: {} de outras versões do modelo e {} expiradas removidas em {} ms",
+                otherVersions, expired, System.currentTimeMillis() - start);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Calcula o SHA-256 do conteúdo da imagem lendo em blocos, sem carregar o arquivo
+     * inteiro na memória. Arquivos em disco são lidos por FileChannel num buffer direto.
+     */
+    public String fingerprint(Resource image) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            if (image.isFile()) {
+                try (FileChannel channel = FileChannel.open(image.getFile().toPath(), StandardOpenOption.READ)) {
+                    ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+                    while (channel.read(buffer) >= 0) {
+                        buffer.flip();
+                        digest.update(buffer);
+                        buffer.clear();
+                    }
+                }
+            } else {
+                try (InputStream in = image.getInputStream()) {
+                    byte[] buffer = new byte[64 * 1024];
+                    int length;
+                    while ((length = in.read(buffer)) >= 0) {
+                        digest.update(buffer, 0, length);
+                    }
+                }
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (IOException e) {
+            throw new RuntimeException("Erro ao processar imagem para IA: " + e.getMessage(), e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public Optional<AiPredictionResponse> get(String contentHash) {
+        String key = cacheKey(contentHash);
+
+        CachedPrediction cached;
+        synchronized (memory) {
+            cached = memory.get(key);
+            if (cached != null && cached.expiresAt() < System.currentTimeMillis()) {
+                memory.remove(key);
+                evictions.increment();
+                cached = null;
+            }
+        }
+        if (cached != null) {
+            memoryHits.increment();
+            return Optional.of(cached.response());
+        }
+
+        if (persistent) {
+            // Uma predição expirada que a limpeza ainda não apagou conta como falta
+            Optional<AiPredictionResponse> stored = predictionCacheRepository.findById(key)
+                    .filter(entry -> entry.getCreatedAt() != null && entry.getCreatedAt().isAfter(persistentCutoff()))
+                    .map(entry -> deserialize(entry.getResponseJson()));
+            if (stored.isPresent()) {
+                databaseHits.increment();
+                putInMemory(key, stored.get());
+                return stored;
+            }
+        }
+
+        misses.increment();
+        return Optional.empty();
+    }
+
+    public void put(String contentHash, AiPredictionResponse response) {
+        // Só respostas válidas são reaproveitadas; erros da IA devem ser refeitos
+        if (response == null || response.getError() != null
+                || response.getPredictions() == null || response.getPredictions().isEmpty()) {
+            return;
+        }
+
+        String key = cacheKey(contentHash);
+        putInMemory(key, response);
+
+        if (persistent) {
+            try {
+                PredictionCacheEntry entry = new PredictionCacheEntry();
+                entry.setCacheKey(key);
+                entry.setContentHash(contentHash);
+                entry.setModelVersion(modelVersion);
+                entry.setResponseJson(objectMapper.writeValueAsString(response));
+                // save() de uma chave existente é um merge, que não passa pelo @PrePersist
+                entry.setCreatedAt(LocalDateTime.now());
+                predictionCacheRepository.save(entry);
+            } catch (Exception e) {
+                // O cache persistente é só otimização; falhar aqui não pode derrubar a predição
+                log.warn("Não foi possível gravar predição no cache: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void putInMemory(String key, AiPredictionResponse response) {
+        long expiresAt = System.currentTimeMillis() + ttlMinutes * 60_000;
+        synchronized (memory) {
+            memory.put(key, new CachedPrediction(response, expiresAt));
+        }
+    }
+
+    private LocalDateTime persistentCutoff() {
+        return LocalDateTime.now().minusDays(persistentTtlDays);
+    }
+
+    private int memorySize() {
+        synchronized (memory) {
+            return memory.size();
+        }
+    }
+
+    private String cacheKey(String contentHash) {
+        return modelVersion + ":" + contentHash;
+    }
+
+    private AiPredictionResponse deserialize(String json) {
+        try {
+            return objectMapper.readValue(json, AiPredictionResponse.class);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Predição em cache inválida: " + e.getMessage(), e);
+        }
+    }
+
+    private record CachedPrediction(AiPredictionResponse response, long expiresAt) {
+    }
+}
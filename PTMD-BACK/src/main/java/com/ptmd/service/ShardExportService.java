@@ -0,0 +1,303 @@
+package com.ptmd.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.ptmd.dto.ExportImageRow;
+import com.ptmd.dto.ShardExportResponse;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Exportação do dataset no formato WebDataset: shards tar de tamanho fixo, cada um com
+ * pares {@code {imageId}.jpg} + {@code {imageId}.json} (rótulos). Uma passada pelo cursor
+ * distribui as imagens nos shards pelo tamanho dos arquivos, e cada shard fechado é escrito
+ * por um pool de writers em paralelo. Ao final é gravado um index.json com a lista de shards.
+ */
+@Service
+public class ShardExportService {
+
+    private static final Logger log = LoggerFactory.getLogger(ShardExportService.class);
+
+    private static final DateTimeFormatter EXPORT_ID = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    @Autowired
+    private DatasetExportService datasetExportService;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${app.export.shards.dir:exports}")
+    private String exportDir;
+
+    // Tamanho máximo de cada shard
+    @Value("${app.export.shards.max-bytes:1073741824}")
+    private long maxShardBytes;
+
+    // Shards escritos ao mesmo tempo
+    @Value("${app.export.shards.writers:4}")
+    private int writers;
+
+    // Exportações iniciadas há mais dias que isso são apagadas pela limpeza (0 = manter todas)
+    @Value("${app.export.shards.retention-days:7}")
+    private int retentionDays;
+
+    private ExecutorService exportExecutor;
+    private ThreadPoolExecutor shardWriters;
+
+    // Exportações desta instância; as anteriores são lidas do index.json. Cada valor é
+    // substituído, nunca alterado, quando a exportação termina
+    private final Map<String, ShardExportResponse> exports = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        this.exportExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "shard-export");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // Fila curta e CallerRunsPolicy: se os writers estiverem ocupados, a thread do cursor
+        // escreve o shard ela mesma, então no máximo alguns shards planejados ficam em memória
+        AtomicInteger threadCount = new AtomicInteger();
+        this.shardWriters = new ThreadPoolExecutor(writers, writers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(writers),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "shard-writer-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        exportExecutor.shutdownNow();
+        shardWriters.shutdownNow();
+    }
+
+    /**
+     * Inicia uma exportação em segundo plano e retorna seu andamento. Uma exportação por vez.
+     */
+    public synchronized ShardExportResponse start(DatasetExportService.ExportWatermark since) {
+        boolean running = exports.values().stream().anyMatch(export -> "RUNNING".equals(export.status()));
+        if (running) {
+            throw new RuntimeException("Já existe uma exportação em shards em andamento");
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        ShardExportResponse export = new ShardExportResponse(now.format(EXPORT_ID), "RUNNING", now, null,
+                since != null ? since.encode() : null, null, 0L, 0L, List.of(), null);
+        exports.put(export.id(), export);
+        exportExecutor.execute(() -> run(export, since));
+        return export;
+    }
+
+    public Optional<ShardExportResponse> getExport(String id) {
+        ShardExportResponse export = exports.get(id);
+        if (export != null) {
+            return Optional.of(export);
+        }
+        Path index = exportDirectory(id).resolve("index.json");
+        if (!Files.exists(index)) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(objectMapper.readValue(index.toFile(), ShardExportResponse.class));
+        } catch (IOException e) {
+            throw new RuntimeException("Erro ao ler índice da exportação: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Caminho de um shard de uma exportação concluída, para download.
+     */
+    public Path getShard(String id, String file) {
+        ShardExportResponse export = getExport(id)
+                .orElseThrow(() -> new RuntimeException("Exportação não encontrada"));
+        boolean listed = export.shards().stream().anyMatch(shard -> shard.file().equals(file));
+        if (!"COMPLETED".equals(export.status()) || !listed) {
+            throw new RuntimeException("Shard não encontrado");
+        }
+        return exportDirectory(id).resolve(file);
+    }
+
+    /**
+     * Apaga as exportações iniciadas há mais de app.export.shards.retention-days dias: o
+     * diretório com os shards e a entrada em memória. A exportação em andamento fica.
+     */
+    @Scheduled(cron = "${app.export.shards.cleanup-cron:0 45 4 * * *}")
+    public synchronized void purgeExpired() {
+        if (retentionDays <= 0) {
+            return;
+        }
+        String cutoff = LocalDateTime.now().minusDays(retentionDays).format(EXPORT_ID);
+        Predicate<String> expired = id -> id.matches("[0-9]{8}-[0-9]{6}") && id.compareTo(cutoff) < 0
+                && !"RUNNING".equals(Optional.ofNullable(exports.get(id)).map(ShardExportResponse::status).orElse(null));
+
+        int removed = 0;
+        Path root = Paths.get(exportDir).toAbsolutePath().normalize();
+        if (Files.isDirectory(root)) {
+            try (Stream<Path> directories = Files.list(root)) {
+                for (Path directory : directories.filter(path -> expired.test(path.getFileName().toString())).toList()) {
+                    deleteDirectory(directory);
+                    removed++;
+                }
+            } catch (IOException e) {
+                log.warn("Não foi possível listar as exportações em {}: {}", root, e.getMessage());
+            }
+        }
+        exports.keySet().removeIf(expired);
+        if (removed > 0) {
+            log.info("Limpeza das exportações em shards: {} exportações com mais de {} dias removidas",
+                    removed, retentionDays);
+        }
+    }
+
+    private void run(ShardExportResponse export, DatasetExportService.ExportWatermark since) {
+        long start = System.currentTimeMillis();
+        Path directory = exportDirectory(export.id());
+        List<Future<ShardExportResponse.Shard>> written = new ArrayList<>();
+        try {
+            Files.createDirectories(directory);
+
+            LocalDateTime until = datasetExportService.exportUntil();
+            DatasetExportService.ExportWatermark[] watermark = {since};
+            List<ExportImageRow> shard = new ArrayList<>();
+            long[] shardBytes = new long[1];
+
+            datasetExportService.inStream(since, until, rows -> rows.forEach(row -> {
+                watermark[0] = new DatasetExportService.ExportWatermark(row.getConfirmedAt(), row.getImageId());
+                FileStorageService.BlobLocation location = fileStorageService.locate(row.getFilePath());
+                if (location == null) {
+                    return; // Pular se o arquivo não existir
+                }
+                // O JSON de rótulos cabe num bloco de 512 bytes
+                long sampleBytes = TarWriter.entrySize(location.length()) + 2L * TarWriter.BLOCK_SIZE;
+
+                if (!shard.isEmpty() && shardBytes[0] + sampleBytes > maxShardBytes) {
+                    written.add(submitShard(directory, written.size(), new ArrayList<>(shard)));
+                    shard.clear();
+                    shardBytes[0] = 0;
+                }
+                shard.add(row);
+                shardBytes[0] += sampleBytes;
+            }));
+            if (!shard.isEmpty()) {
+                written.add(submitShard(directory, written.size(), shard));
+            }
+
+            List<ShardExportResponse.Shard> shards = new ArrayList<>();
+            for (Future<ShardExportResponse.Shard> future : written) {
+                shards.add(future.get());
+            }
+
+            ShardExportResponse completed = new ShardExportResponse(export.id(), "COMPLETED", export.startedAt(),
+                    LocalDateTime.now(), export.since(), watermark[0] != null ? watermark[0].encode() : null,
+                    shards.stream().mapToLong(ShardExportResponse.Shard::samples).sum(),
+                    shards.stream().mapToLong(ShardExportResponse.Shard::bytes).sum(), shards, null);
+            // O índice é gravado antes de publicar COMPLETED, para os shards já estarem baixáveis
+            objectMapper.copy().enable(SerializationFeature.INDENT_OUTPUT)
+                    .writeValue(directory.resolve("index.json").toFile(), completed);
+            exports.put(completed.id(), completed);
+
+            log.info("Exportação em shards {} concluída: {} amostras em {} shards, {} MB em {} ms",
+                    completed.id(), completed.samples(), shards.size(), completed.bytes() >> 20,
+                    System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            written.forEach(future -> future.cancel(true));
+            Throwable cause = e instanceof ExecutionException || e instanceof UncheckedIOException ? e.getCause() : e;
+            log.error("Falha na exportação em shards {}", export.id(), cause);
+            // Os shards de uma exportação que falhou não são baixáveis; só a entrada em memória fica
+            deleteDirectory(directory);
+            exports.put(export.id(), new ShardExportResponse(export.id(), "FAILED", export.startedAt(),
+                    LocalDateTime.now(), export.since(), null, 0L, 0L, List.of(), cause.getMessage()));
+        }
+    }
+
+    private void deleteDirectory(Path directory) {
+        if (!Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            log.warn("Não foi possível apagar a exportação {}: {}", directory, e.getMessage());
+        }
+    }
+
+    private Future<ShardExportResponse.Shard> submitShard(Path directory, int index, List<ExportImageRow> rows) {
+        String file = String.format("shard-%06d.tar", index);
+        return shardWriters.submit(() -> writeShard(directory.resolve(file), rows));
+    }
+
+    private ShardExportResponse.Shard writeShard(Path file, List<ExportImageRow> rows) throws IOException {
+        try (TarWriter tar = new TarWriter(file)) {
+            for (ExportImageRow row : rows) {
+                // Os arquivos de uma mesma amostra compartilham a chave (prefixo antes do ponto)
+                String key = String.format("%09d", row.getImageId());
+                FileStorageService.BlobLocation location = fileStorageService.locate(row.getFilePath());
+                if (location == null) {
+                    throw new IOException("Imagem removida durante a exportação: " + row.getFilePath());
+                }
+                tar.addFile(key + datasetExportService.extension(row).toLowerCase(), location);
+                tar.addBytes(key + ".json", objectMapper.writeValueAsBytes(labels(row)));
+            }
+            tar.finish();
+            return new ShardExportResponse.Shard(file.getFileName().toString(), (long) rows.size(), tar.size(),
+                    rows.get(0).getImageId(), rows.get(rows.size() - 1).getImageId());
+        }
+    }
+
+    private Map<String, Object> labels(ExportImageRow row) {
+        Map<String, Object> labels = new LinkedHashMap<>();
+        labels.put("imageId", row.getImageId());
+        labels.put("patientId", row.getPatientId());
+        labels.put("label", row.getFinalDiagnosis());
+        labels.put("aiDiagnosis", row.getAiDiagnosis());
+        labels.put("confirmedAt", row.getConfirmedAt() != null ? row.getConfirmedAt().toString() : null);
+        return labels;
+    }
+
+    private Path exportDirectory(String id) {
+        if (!id.matches("[0-9]{8}-[0-9]{6}")) {
+            throw new RuntimeException("Exportação não encontrada");
+        }
+        return Paths.get(exportDir).toAbsolutePath().normalize().resolve(id);
+    }
+}
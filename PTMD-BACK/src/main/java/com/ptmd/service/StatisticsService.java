@@ -0,0 +1,321 @@
+package com.ptmd.service;
+
+import com.ptmd.dto.DashboardResponse;
+import com.ptmd.entity.Consultation;
+import com.ptmd.entity.Image;
+import com.ptmd.entity.StatCounter;
+import com.ptmd.repository.ConsultationRepository;
+import com.ptmd.repository.ImageRepository;
+import com.ptmd.repository.PatientRepository;
+import com.ptmd.repository.StatCounterRepository;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Estatísticas do dashboard administrativo mantidas em contadores (tabela stat_counters)
+ * atualizados na mesma transação que cria ou confirma consultas e imagens. O dashboard
+ * lê só os contadores; uma reconciliação periódica recalcula tudo a partir das tabelas
+ * para corrigir qualquer desvio.
+ */
+@Service
+public class StatisticsService {
+
+    private static final Logger log = LoggerFactory.getLogger(StatisticsService.class);
+
+    static final String IMAGES = "images";
+    static final String CONSULTATIONS = "consultations";
+    static final String PATIENTS = "patients";
+    static final String IMAGES_CONFIRMED = "images.confirmed";
+    static final String CONSULTATIONS_CONFIRMED = "consultations.confirmed";
+    static final String IMAGES_BY_DIAGNOSIS = "images.by-diagnosis";
+    static final String IMAGES_BY_DAY = "images.by-day";
+    static final String CONSULTATIONS_BY_DAY = "consultations.by-day";
+    // Dimensão "yyyy-MM-dd|diagnóstico da IA|diagnóstico do médico", pelo dia da confirmação
+    static final String IMAGE_AGREEMENT = "agreement.images";
+    static final String CONSULTATION_AGREEMENT = "agreement.consultations";
+    // Linha sem valor útil, travada durante a reconciliação para só uma rodar por vez
+    static final String RECONCILE_LOCK = "lock.reconcile";
+
+    private static final String TOTAL = "";
+
+    @Autowired
+    private StatCounterRepository statCounterRepository;
+
+    @Autowired
+    private ImageRepository imageRepository;
+
+    @Autowired
+    private ConsultationRepository consultationRepository;
+
+    @Autowired
+    private PatientRepository patientRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    // Quantos dias de volume diário o dashboard mostra (e a reconciliação recalcula)
+    @Value("${app.stats.daily-window-days:30}")
+    private int dailyWindowDays;
+
+    // Contagens e contadores da reconciliação lidos no mesmo snapshot
+    private TransactionTemplate snapshotTransaction;
+
+    @PostConstruct
+    public void init() {
+        this.snapshotTransaction = new TransactionTemplate(transactionManager);
+        this.snapshotTransaction.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ);
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordPatientCreated() {
+        statCounterRepository.increment(PATIENTS, TOTAL, 1);
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordConsultationCreated(LocalDate day, int imageCount) {
+        statCounterRepository.increment(CONSULTATIONS, TOTAL, 1);
+        statCounterRepository.increment(CONSULTATIONS_BY_DAY, day.toString(), 1);
+        statCounterRepository.increment(IMAGES, TOTAL, imageCount);
+        statCounterRepository.increment(IMAGES_BY_DAY, day.toString(), imageCount);
+    }
+
+    /**
+     * Desfaz {@link #recordConsultationCreated} quando a consulta é removida antes de ter
+     * imagens confirmadas (falha da IA na criação síncrona).
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordConsultationDeleted(LocalDate day, int imageCount) {
+        statCounterRepository.increment(CONSULTATIONS, TOTAL, -1);
+        statCounterRepository.increment(CONSULTATIONS_BY_DAY, day.toString(), -1);
+        statCounterRepository.increment(IMAGES, TOTAL, -imageCount);
+        statCounterRepository.increment(IMAGES_BY_DAY, day.toString(), -imageCount);
+    }
+
+    /**
+     * Registra a confirmação de uma imagem; deve ser chamado antes de gravar o novo
+     * diagnóstico e o novo confirmedAt na entidade. Numa reconfirmação com outro
+     * diagnóstico, só move a imagem de um diagnóstico para o outro, e da célula da matriz
+     * de concordância no dia da confirmação anterior para a do dia de {@code confirmedAt}.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordImageConfirmed(Image image, String finalDiagnosis, LocalDateTime confirmedAt) {
+        boolean wasConfirmed = Boolean.TRUE.equals(image.getConfirmed());
+        String previousDiagnosis = wasConfirmed ? image.getFinalDiagnosis() : null;
+        if (wasConfirmed && finalDiagnosis.equals(previousDiagnosis)) {
+            return;
+        }
+
+        if (!wasConfirmed) {
+            statCounterRepository.increment(IMAGES_CONFIRMED, TOTAL, 1);
+        }
+        moveCounter(IMAGES_BY_DIAGNOSIS, previousDiagnosis, finalDiagnosis);
+
+        String predicted = predictedLabel(image.getAiDiagnosis(), image.getMultClass());
+        if (predicted != null) {
+            LocalDateTime previousConfirmedAt = image.getConfirmedAt() != null ? image.getConfirmedAt() : image.getCreatedAt();
+            moveCounter(IMAGE_AGREEMENT,
+                    previousDiagnosis != null ? agreementPrefix(previousConfirmedAt.toLocalDate(), predicted) + previousDiagnosis : null,
+                    agreementPrefix(confirmedAt.toLocalDate(), predicted) + finalDiagnosis);
+        }
+    }
+
+    /**
+     * Registra a confirmação do diagnóstico de uma consulta; deve ser chamado antes de
+     * gravar o novo diagnóstico e o novo confirmedAt na entidade.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordConsultationConfirmed(Consultation consultation, String finalDiagnosis, LocalDateTime confirmedAt) {
+        boolean wasConfirmed = Boolean.TRUE.equals(consultation.getConfirmed());
+        String previousDiagnosis = wasConfirmed ? consultation.getFinalDiagnosis() : null;
+        if (wasConfirmed && finalDiagnosis.equals(previousDiagnosis)) {
+            return;
+        }
+
+        if (!wasConfirmed) {
+            statCounterRepository.increment(CONSULTATIONS_CONFIRMED, TOTAL, 1);
+        }
+
+        String predicted = predictedLabel(consultation.getAiDiagnosis(), consultation.getMultClass());
+        if (predicted != null) {
+            LocalDateTime previousConfirmedAt = consultation.getConfirmedAt() != null
+                    ? consultation.getConfirmedAt() : consultation.getCreatedAt();
+            moveCounter(CONSULTATION_AGREEMENT,
+                    previousDiagnosis != null ? agreementPrefix(previousConfirmedAt.toLocalDate(), predicted) + previousDiagnosis : null,
+                    agreementPrefix(confirmedAt.toLocalDate(), predicted) + finalDiagnosis);
+        }
+    }
+
+    // Tira um da dimensão anterior (se houver) e soma um na nova
+    private void moveCounter(String name, String previousDimension, String dimension) {
+        if (previousDimension != null) {
+            statCounterRepository.increment(name, previousDimension, -1);
+        }
+        statCounterRepository.increment(name, dimension, 1);
+    }
+
+    static String agreementPrefix(LocalDate day, String predicted) {
+        return day + "|" + predicted + "|";
+    }
+
+    /**
+     * Classe prevista pela IA: a multiclasse quando a imagem foi classificada como
+     * anormal, senão a classe binária (Normal).
+     */
+    static String predictedLabel(String aiDiagnosis, String multClass) {
+        return multClass != null && !multClass.isEmpty() ? multClass : aiDiagnosis;
+    }
+
+    @Transactional(readOnly = true)
+    public DashboardResponse getDashboard() {
+        LocalDate since = LocalDate.now().minusDays(dailyWindowDays - 1);
+        List<StatCounter> counters = statCounterRepository.findForDashboard(
+                List.of(IMAGES, CONSULTATIONS, PATIENTS, IMAGES_CONFIRMED, CONSULTATIONS_CONFIRMED, IMAGES_BY_DIAGNOSIS),
+                List.of(IMAGES_BY_DAY, CONSULTATIONS_BY_DAY),
+                since.toString());
+
+        Map<String, Long> totals = new HashMap<>();
+        Map<String, Long> byDiagnosis = new TreeMap<>();
+        Map<String, Long> imagesByDay = new HashMap<>();
+        Map<String, Long> consultationsByDay = new HashMap<>();
+        for (StatCounter counter : counters) {
+            switch (counter.getName()) {
+                case IMAGES_BY_DIAGNOSIS -> {
+                    if (counter.getValue() > 0) {
+                        byDiagnosis.put(counter.getDimension(), counter.getValue());
+                    }
+                }
+                case IMAGES_BY_DAY -> imagesByDay.put(counter.getDimension(), counter.getValue());
+                case CONSULTATIONS_BY_DAY -> consultationsByDay.put(counter.getDimension(), counter.getValue());
+                default -> totals.put(counter.getName(), counter.getValue());
+            }
+        }
+
+        List<DashboardResponse.DailyVolume> dailyVolumes = new ArrayList<>();
+        for (LocalDate day = since; !day.isAfter(LocalDate.now()); day = day.plusDays(1)) {
+            dailyVolumes.add(new DashboardResponse.DailyVolume(day,
+                    imagesByDay.getOrDefault(day.toString(), 0L),
+                    consultationsByDay.getOrDefault(day.toString(), 0L)));
+        }
+
+        long totalImages = totals.getOrDefault(IMAGES, 0L);
+        long confirmedImages = totals.getOrDefault(IMAGES_CONFIRMED, 0L);
+        return new DashboardResponse(totalImages, totals.getOrDefault(CONSULTATIONS, 0L),
+                totals.getOrDefault(PATIENTS, 0L), confirmedImages, totalImages - confirmedImages,
+                totals.getOrDefault(CONSULTATIONS_CONFIRMED, 0L), byDiagnosis, dailyVolumes);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void reconcileOnStartup() {
+        reconcile();
+    }
+
+    /**
+     * Recalcula os contadores a partir das tabelas e corrige a diferença. As contagens e
+     * os valores atuais dos contadores são lidos no mesmo snapshot (REPEATABLE READ), e a
+     * correção é aplicada como incremento: um contador atualizado por outra transação
+     * depois do snapshot mantém esse incremento, em vez de ser sobrescrito por um total
+     * já desatualizado. Os volumes diários são recalculados só dentro da janela do
+     * dashboard; a matriz de concordância é recalculada inteira.
+     * <p>
+     * Duas rodadas simultâneas (várias instâncias no mesmo cron, ou a do startup junto com
+     * a agendada) calculariam a mesma diferença e a aplicariam duas vezes. Por isso a
+     * transação começa travando a linha {@link #RECONCILE_LOCK}; se outra rodada já a
+     * tem, esta é ignorada. A trava vem antes de qualquer leitura, então uma rodada
+     * seguinte só tira o snapshot depois do commit da anterior.
+     */
+    @Scheduled(cron = "${app.stats.reconcile-cron:0 0 3 * * *}")
+    public void reconcile() {
+        long start = System.currentTimeMillis();
+        LocalDate since = LocalDate.now().minusDays(dailyWindowDays - 1);
+
+        // Leitura sem trava: criar a linha de novo a cada rodada disputaria a trava que ela guarda
+        if (!statCounterRepository.existsByNameAndDimension(RECONCILE_LOCK, TOTAL)) {
+            new TransactionTemplate(transactionManager).executeWithoutResult(status ->
+                    statCounterRepository.increment(RECONCILE_LOCK, TOTAL, 0));
+        }
+
+        Integer corrected = snapshotTransaction.execute(status -> {
+            if (statCounterRepository.lockIfFree(RECONCILE_LOCK).isEmpty()) {
+                return null;
+            }
+
+            Map<CounterKey, Long> expected = new HashMap<>();
+            expected.put(new CounterKey(IMAGES, TOTAL), imageRepository.count());
+            expected.put(new CounterKey(CONSULTATIONS, TOTAL), consultationRepository.count());
+            expected.put(new CounterKey(PATIENTS, TOTAL), patientRepository.count());
+            expected.put(new CounterKey(IMAGES_CONFIRMED, TOTAL), imageRepository.countByConfirmedTrue());
+            expected.put(new CounterKey(CONSULTATIONS_CONFIRMED, TOTAL), consultationRepository.countByConfirmedTrue());
+            for (Object[] row : imageRepository.countConfirmedByFinalDiagnosis()) {
+                expected.put(new CounterKey(IMAGES_BY_DIAGNOSIS, (String) row[0]), ((Number) row[1]).longValue());
+            }
+            for (Object[] row : imageRepository.countPerDaySince(since.atStartOfDay())) {
+                expected.put(new CounterKey(IMAGES_BY_DAY, row[0].toString()), ((Number) row[1]).longValue());
+            }
+            for (Object[] row : consultationRepository.countPerDaySince(since.atStartOfDay())) {
+                expected.put(new CounterKey(CONSULTATIONS_BY_DAY, row[0].toString()), ((Number) row[1]).longValue());
+            }
+            for (Object[] row : imageRepository.countAgreementPerDay()) {
+                expected.put(new CounterKey(IMAGE_AGREEMENT, LocalDate.parse(row[0].toString()) + "|" + row[1] + "|" + row[2]),
+                        ((Number) row[3]).longValue());
+            }
+            for (Object[] row : consultationRepository.countAgreementPerDay()) {
+                expected.put(new CounterKey(CONSULTATION_AGREEMENT, LocalDate.parse(row[0].toString()) + "|" + row[1] + "|" + row[2]),
+                        ((Number) row[3]).longValue());
+            }
+
+            Map<CounterKey, Long> current = new HashMap<>();
+            for (StatCounter counter : statCounterRepository.findForDashboard(
+                    List.of(IMAGES, CONSULTATIONS, PATIENTS, IMAGES_CONFIRMED, CONSULTATIONS_CONFIRMED,
+                            IMAGES_BY_DIAGNOSIS, IMAGE_AGREEMENT, CONSULTATION_AGREEMENT),
+                    List.of(IMAGES_BY_DAY, CONSULTATIONS_BY_DAY),
+                    since.toString())) {
+                current.put(new CounterKey(counter.getName(), counter.getDimension()), counter.getValue());
+            }
+
+            // Só escreve depois de todas as leituras, para nenhuma delas ver a própria correção
+            Set<CounterKey> keys = new HashSet<>(expected.keySet());
+            keys.addAll(current.keySet());
+            int changed = 0;
+            for (CounterKey key : keys) {
+                long delta = expected.getOrDefault(key, 0L) - current.getOrDefault(key, 0L);
+                if (delta != 0) {
+                    statCounterRepository.increment(key.name(), key.dimension(), delta);
+                    changed++;
+                }
+            }
+            return changed;
+        });
+
+        if (corrected == null) {
+            log.info("Reconciliação das estatísticas ignorada: outra rodada está em andamento");
+            return;
+        }
+        log.info("Estatísticas do dashboard reconciliadas em {} ms ({} contadores corrigidos)",
+                System.currentTimeMillis() - start, corrected);
+    }
+
+    private record CounterKey(String name, String dimension) {
+    }
+}
@@ -0,0 +1,142 @@
+package com.ptmd.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Escreve um arquivo tar (formato ustar) sequencialmente. O conteúdo dos arquivos é
+ * copiado com {@link FileChannel#transferTo}, sem passar pela heap.
+ */
+class TarWriter implements Closeable {
+
+    static final int BLOCK_SIZE = 512;
+
+    private final FileChannel channel;
+    private final ByteBuffer header = ByteBuffer.allocate(BLOCK_SIZE);
+    private long position;
+
+    TarWriter(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Tamanho que uma entrada com {@code size} bytes de conteúdo ocupa no tar.
+     */
+    static long entrySize(long size) {
+        return BLOCK_SIZE + padded(size);
+    }
+
+    /**
+     * Adiciona o trecho do arquivo indicado por {@code location} (o arquivo inteiro ou um blob dentro de um segmento do pack).
+     */
+    void addFile(String name, FileStorageService.BlobLocation location) throws IOException {
+        long size = location.length();
+        writeHeader(name, size);
+        try (FileChannel source = FileChannel.open(location.file(), StandardOpenOption.READ)) {
+            long transferred = 0;
+            while (transferred < size) {
+                long count = source.transferTo(location.offset() + transferred, size - transferred, channel);
+                if (count <= 0) {
+                    throw new IOException("Arquivo mudou de tamanho durante a exportação: " + location.file());
+                }
+                transferred += count;
+            }
+        }
+        position += size;
+        pad();
+    }
+
+    void addBytes(String name, byte[] content) throws IOException {
+        writeHeader(name, content.length);
+        writeFully(ByteBuffer.wrap(content));
+        position += content.length;
+        pad();
+    }
+
+    long size() {
+        return position;
+    }
+
+    /**
+     * Escreve os dois blocos vazios que marcam o fim do tar.
+     */
+    void finish() throws IOException {
+        writeFully(ByteBuffer.allocate(2 * BLOCK_SIZE));
+        position += 2 * BLOCK_SIZE;
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void writeHeader(String name, long size) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.US_ASCII);
+        if (nameBytes.length > 100) {
+            throw new IOException("Nome de entrada muito longo para o tar: " + name);
+        }
+
+        header.clear();
+        header.put(new byte[BLOCK_SIZE]);
+        header.position(0);
+        header.put(nameBytes);
+        putOctal(100, 8, 0644);                            // mode
+        putOctal(108, 8, 0);                               // uid
+        putOctal(116, 8, 0);                               // gid
+        putOctal(124, 12, size);                           // size
+        putOctal(136, 12, System.currentTimeMillis() / 1000); // mtime
+        header.put(156, (byte) '0');                       // typeflag: arquivo comum
+        header.position(257);
+        header.put("ustar\0".getBytes(StandardCharsets.US_ASCII));
+        header.put("00".getBytes(StandardCharsets.US_ASCII));
+
+        // O checksum é calculado com o próprio campo preenchido por espaços
+        for (int i = 148; i < 156; i++) {
+            header.put(i, (byte) ' ');
+        }
+        long checksum = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            checksum += header.get(i) & 0xFF;
+        }
+        putOctal(148, 7, checksum);
+        header.put(155, (byte) ' ');
+
+        header.position(0).limit(BLOCK_SIZE);
+        writeFully(header);
+        position += BLOCK_SIZE;
+    }
+
+    private void putOctal(int offset, int length, long value) {
+        String octal = String.format("%0" + (length - 1) + "o", value);
+        byte[] bytes = octal.getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < bytes.length; i++) {
+            header.put(offset + i, bytes[i]);
+        }
+        header.put(offset + length - 1, (byte) 0);
+    }
+
+    private void pad() throws IOException {
+        int padding = (int) (padded(position) - position);
+        if (padding > 0) {
+            writeFully(ByteBuffer.allocate(padding));
+            position += padding;
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static long padded(long size) {
+        return (size + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+    }
+}
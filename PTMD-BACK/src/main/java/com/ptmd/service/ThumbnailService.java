@@ -0,0 +1,254 @@
+package com.ptmd.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Service;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Miniaturas JPEG das imagens nos tamanhos de {@code app.thumbnails.sizes} (maior lado,
+ * em pixels), para as listagens não baixarem a imagem em resolução cheia. São geradas
+ * em segundo plano logo após o upload, num pool limitado; se a fila estiver cheia, ou
+ * para imagens antigas, a miniatura é gerada na primeira requisição. Ficam em
+ * {@code <thumbnails.dir>/<tamanho>/ab/<nome>.jpg}, num cache em disco limitado a
+ * {@code cache-max-bytes} que descarta as menos acessadas.
+ */
+@Service
+public class ThumbnailService {
+
+    private static final Logger log = LoggerFactory.getLogger(ThumbnailService.class);
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Value("${app.thumbnails.dir:uploads/thumbnails}")
+    private String thumbnailsDir;
+
+    @Value("${app.thumbnails.sizes:160,480}")
+    private List<Integer> sizes;
+
+    @Value("${app.thumbnails.jpeg-quality:0.8}")
+    private float jpegQuality;
+
+    @Value("${app.thumbnails.workers:2}")
+    private int workers;
+
+    @Value("${app.thumbnails.queue-capacity:200}")
+    private int queueCapacity;
+
+    @Value("${app.thumbnails.cache-max-bytes:536870912}")
+    private long cacheMaxBytes;
+
+    private ThreadPoolExecutor executor;
+
+    // Miniaturas em disco em ordem de acesso (a primeira é a próxima a sair), com o tamanho de cada uma
+    private final LinkedHashMap<Path, Long> cached = new LinkedHashMap<>(1024, 0.75f, true);
+    private long cachedBytes;
+
+    // Uma geração por miniatura: requisições simultâneas esperam a mesma
+    private final Map<Path, CompletableFuture<Path>> inFlight = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() throws IOException {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "thumbnail-worker-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                },
+                // Fila cheia: a miniatura fica para a primeira requisição
+                new ThreadPoolExecutor.DiscardPolicy());
+        loadCache();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public boolean isSupportedSize(int size) {
+        return sizes.contains(size);
+    }
+
+    public List<Integer> getSizes() {
+        return sizes;
+    }
+
+    /**
+     * Agenda a geração das miniaturas de uma imagem recém-salva.
+     */
+    public void generateAsync(String filePath) {
+        String name = Paths.get(filePath).getFileName().toString();
+        for (int size : sizes) {
+            executor.execute(() -> {
+                try {
+                    getThumbnail(name, size, () -> fileStorageService.loadResource(filePath));
+                } catch (RuntimeException e) {
+                    log.warn("Não foi possível gerar a miniatura {}px de {}: {}", size, filePath, e.getMessage());
+                }
+            });
+        }
+    }
+
+    /**
+     * Caminho da miniatura da imagem {@code name} (o nome do arquivo, como em /api/files/by-name),
+     * gerando-a a partir de {@code source} se ainda não está no cache. Retorna null se a
+     * imagem não existe ou não pode ser decodificada.
+     */
+    public Path getThumbnail(String name, int size, Supplier<Resource> source) {
+        if (!isSupportedSize(size)) {
+            throw new IllegalArgumentException("Tamanho de miniatura não suportado: " + size);
+        }
+        Path target = thumbnailPath(name, size);
+        if (touch(target)) {
+            return target;
+        }
+
+        CompletableFuture<Path> mine = new CompletableFuture<>();
+        CompletableFuture<Path> running = inFlight.putIfAbsent(target, mine);
+        if (running != null) {
+            return join(running);
+        }
+        try {
+            mine.complete(Files.exists(target) ? register(target) : generate(source.get(), size, target));
+        } catch (IOException e) {
+            mine.completeExceptionally(new UncheckedIOException(e));
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+        } finally {
+            inFlight.remove(target);
+        }
+        return join(mine);
+    }
+
+    private Path generate(Resource source, int size, Path target) throws IOException {
+        if (source == null) {
+            return null;
+        }
+        BufferedImage decoded = ImageCodec.decode(source, size, false);
+        if (decoded == null) {
+            return null;
+        }
+        // Nunca amplia: imagens menores que o tamanho pedido só são recodificadas
+        double scale = Math.min(1.0, (double) size / Math.max(decoded.getWidth(), decoded.getHeight()));
+        byte[] encoded = ImageCodec.encodeJpeg(ImageCodec.resize(decoded, scale), jpegQuality);
+
+        Files.createDirectories(target.getParent());
+        Path temp = target.resolveSibling(target.getFileName() + ".part");
+        Files.write(temp, encoded);
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return register(target);
+    }
+
+    private Path thumbnailPath(String name, int size) {
+        String key = name.contains(".") ? name.substring(0, name.lastIndexOf('.')) : name;
+        // O nome vira caminho no disco: só letras, dígitos, _ e -
+        key = key.replaceAll("[^A-Za-z0-9_-]", "_");
+        String prefix = key.length() >= 2 ? key.substring(0, 2) : "_";
+        return Paths.get(thumbnailsDir, String.valueOf(size), prefix, key + ".jpg");
+    }
+
+    private synchronized boolean touch(Path thumbnail) {
+        return cached.get(thumbnail) != null;
+    }
+
+    private Path register(Path thumbnail) throws IOException {
+        long size = Files.size(thumbnail);
+        synchronized (this) {
+            Long previous = cached.put(thumbnail, size);
+            cachedBytes += size - (previous != null ? previous : 0);
+            evict();
+        }
+        return thumbnail;
+    }
+
+    /**
+     * Apaga as miniaturas menos acessadas até o cache caber em {@code cache-max-bytes}.
+     */
+    private void evict() {
+        Iterator<Map.Entry<Path, Long>> eldest = cached.entrySet().iterator();
+        while (cachedBytes > cacheMaxBytes && eldest.hasNext()) {
+            Map.Entry<Path, Long> entry = eldest.next();
+            try {
+                Files.deleteIfExists(entry.getKey());
+            } catch (IOException e) {
+                log.warn("Não foi possível apagar a miniatura {}: {}", entry.getKey(), e.getMessage());
+            }
+            cachedBytes -= entry.getValue();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Reconstrói o índice do cache a partir do disco, na ordem da última modificação.
+     */
+    private void loadCache() throws IOException {
+        Path root = Paths.get(thumbnailsDir);
+        if (!Files.exists(root)) {
+            return;
+        }
+        record CachedFile(Path path, long size, long modified) {
+        }
+        try (Stream<Path> files = Files.walk(root)) {
+            List<CachedFile> found = files
+                    .filter(path -> path.getFileName().toString().endsWith(".jpg"))
+                    .map(path -> {
+                        try {
+                            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                            return new CachedFile(path, attributes.size(), attributes.lastModifiedTime().toMillis());
+                        } catch (IOException e) {
+                            return null;
+                        }
+                    })
+                    .filter(file -> file != null)
+                    .sorted(Comparator.comparingLong(CachedFile::modified))
+                    .toList();
+            synchronized (this) {
+                for (CachedFile file : found) {
+                    cached.put(file.path(), file.size());
+                    cachedBytes += file.size();
+                }
+                evict();
+            }
+        }
+        log.info("Cache de miniaturas: {} arquivos, {} MB", cached.size(), cachedBytes >> 20);
+    }
+
+    private static Path join(CompletableFuture<Path> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException runtime ? runtime : e;
+        }
+    }
+}
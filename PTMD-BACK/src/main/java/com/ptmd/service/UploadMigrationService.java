@@ -0,0 +1,167 @@
+package com.ptmd.service;
+
+import com.ptmd.repository.ImageRepository;
+import com.ptmd.repository.StoredBlobRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Move os uploads antigos (um diretório plano com nomes UUID) para o armazenamento por
+ * conteúdo do {@link FileStorageService}, em segundo plano. Cada lote importa os arquivos
+ * (hard link para {@code ab/cd/<sha256>.ext}), grava o novo caminho e o hash das imagens
+ * numa transação e só então apaga os originais. O progresso fica no próprio banco
+ * (content_hash preenchido), então a migração recomeça de onde parou após um restart.
+ * A leitura é limitada a {@code max-bytes-per-second} para não competir com as requisições.
+ */
+@Service
+public class UploadMigrationService {
+
+    private static final Logger log = LoggerFactory.getLogger(UploadMigrationService.class);
+
+    @Autowired
+    private ImageRepository imageRepository;
+
+    @Autowired
+    private StoredBlobRepository storedBlobRepository;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${app.upload.migration.enabled:true}")
+    private boolean enabled;
+
+    @Value("${app.upload.migration.batch-size:200}")
+    private int batchSize;
+
+    // 0 = sem limite
+    @Value("${app.upload.migration.max-bytes-per-second:20971520}")
+    private long maxBytesPerSecond;
+
+    @Value("${app.upload.migration.pause-between-batches-ms:1000}")
+    private long pauseBetweenBatchesMs;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "upload-migration");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private record Migrated(Long imageId, Path oldPath, FileStorageService.StoredFile stored) {
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void startOnReady() {
+        if (enabled) {
+            executor.submit(this::migrate);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void migrate() {
+        long pending = imageRepository.countByContentHashIsNull();
+        if (pending == 0) {
+            return;
+        }
+        log.info("Migração de uploads: {} imagens no diretório antigo", pending);
+
+        long start = System.currentTimeMillis();
+        long migrated = 0;
+        long missing = 0;
+        long bytes = 0;
+        // Cursor só desta execução: imagens sem arquivo continuam sem hash e não podem voltar no próximo lote
+        Long afterId = 0L;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                List<Object[]> batch = imageRepository.findLegacyFiles(afterId, PageRequest.of(0, batchSize));
+                if (batch.isEmpty()) {
+                    break;
+                }
+                afterId = (Long) batch.get(batch.size() - 1)[0];
+
+                List<Migrated> imported = new ArrayList<>();
+                for (Object[] row : batch) {
+                    Path oldPath = Paths.get((String) row[1]);
+                    if (!Files.exists(oldPath)) {
+                        missing++;
+                        continue;
+                    }
+                    long fileStart = System.nanoTime();
+                    FileStorageService.StoredFile stored = fileStorageService.importFile(oldPath);
+                    imported.add(new Migrated((Long) row[0], oldPath, stored));
+                    bytes += stored.size();
+                    throttle(stored.size(), System.nanoTime() - fileStart);
+                }
+
+                List<Migrated> relocated = transactionTemplate.execute(status -> {
+                    List<Migrated> updated = new ArrayList<>();
+                    for (Migrated file : imported) {
+                        if (imageRepository.relocateFile(file.imageId(), file.oldPath().toString(),
+                                file.stored().path(), file.stored().sha256()) == 1) {
+                            storedBlobRepository.addReferences(file.stored().sha256(), 1);
+                            updated.add(file);
+                        }
+                    }
+                    return updated;
+                });
+
+                // Os originais só saem depois do commit; se o processo cair antes, sobra só o arquivo antigo
+                for (Migrated file : relocated) {
+                    if (!file.oldPath().toAbsolutePath().equals(Paths.get(file.stored().path()).toAbsolutePath())) {
+                        Files.deleteIfExists(file.oldPath());
+                    }
+                }
+                migrated += relocated.size();
+                log.info("Migração de uploads: {} de {} imagens migradas ({} MB)", migrated, pending, bytes >> 20);
+
+                Thread.sleep(pauseBetweenBatchesMs);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.info("Migração de uploads interrompida após {} imagens; continua no próximo início", migrated);
+            return;
+        } catch (IOException | RuntimeException e) {
+            log.error("Migração de uploads interrompida após {} imagens; continua no próximo início", migrated, e);
+            return;
+        }
+        log.info("Migração de uploads concluída: {} imagens, {} MB em {} s ({} sem arquivo no disco)",
+                migrated, bytes >> 20, (System.currentTimeMillis() - start) / 1000, missing);
+    }
+
+    /**
+     * Dorme o necessário para que ler {@code bytes} leve pelo menos bytes / max-bytes-per-second.
+     */
+    private void throttle(long bytes, long elapsedNanos) throws InterruptedException {
+        if (maxBytesPerSecond <= 0) {
+            return;
+        }
+        long minimumNanos = bytes * 1_000_000_000L / maxBytesPerSecond;
+        long sleepMillis = (minimumNanos - elapsedNanos) / 1_000_000;
+        if (sleepMillis > 0) {
+            Thread.sleep(sleepMillis);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.ptmd.controller;
+
+import com.ptmd.service.FileStorageService;
+import com.ptmd.service.ThumbnailService;
+import org.apache.catalina.Context;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.startup.Tomcat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.web.context.support.AnnotationConfigWebApplicationContext;
+import org.springframework.web.servlet.DispatcherServlet;
+import org.springframework.web.servlet.config.annotation.EnableWebMvc;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Downloads concorrentes pelo {@link FileController} num Tomcat embarcado, em três modos:
+ * <ul>
+ *   <li>{@code sendfile}: conector com sendfile, o arquivo vai do page cache para o socket;</li>
+ *   <li>{@code writeListener}: conector sem sendfile e {@code app.files.non-blocking-fallback=true},
+ *   envio não bloqueante pelo {@link FileRegionWriter};</li>
+ *   <li>{@code stream}: conector sem sendfile, cópia pelo conversor do Spring (o fluxo antigo e o
+ *   padrão sem sendfile).</li>
+ * </ul>
+ * O cliente descarta o corpo, mas ainda lê todos os bytes do socket. Além da vazão, cada
+ * iteração imprime a CPU por GB servido, do processo e só das threads do Tomcat. Com
+ * arquivos de 8 MB, 8 clientes e 1 CPU, o sendfile fez ~65 downloads/s com ~280 ms de CPU
+ * do Tomcat por GB, o fluxo antigo ~50 com ~850 ms/GB e o WriteListener ~38 com ~1300 ms/GB.
+ * Por isso, sem sendfile, o padrão continua sendo o conversor do Spring.
+ *
+ * <pre>
+ * java -cp ... com.ptmd.controller.FileDownloadBenchmark -p fileBytes=8388608
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class FileDownloadBenchmark {
+
+    @Param({"sendfile", "writeListener", "stream"})
+    private String mode;
+
+    @Param("8388608")
+    private int fileBytes;
+
+    private Path baseDir;
+    private Tomcat tomcat;
+    private HttpClient client;
+    private HttpRequest request;
+
+    private final com.sun.management.OperatingSystemMXBean os =
+            (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final AtomicLong bytesServed = new AtomicLong();
+    private long processCpuAtStart;
+    private Map<Long, Long> serverCpuAtStart;
+
+    @Configuration
+    @EnableWebMvc
+    public static class WebConfig {
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        baseDir = Files.createTempDirectory("ptmd-download-bench");
+        Path file = baseDir.resolve("image.jpg");
+        byte[] content = new byte[fileBytes];
+        new Random(42).nextBytes(content);
+        Files.write(file, content);
+
+        FileStorageService fileStorageService = mock(FileStorageService.class, withSettings().stubOnly());
+        when(fileStorageService.loadResource(anyString())).thenAnswer(invocation -> new FileSystemResource(file));
+        when(fileStorageService.locate(any(Resource.class))).thenCallRealMethod();
+
+        FileController controller = new FileController();
+        ReflectionTestUtils.setField(controller, "fileStorageService", fileStorageService);
+        ReflectionTestUtils.setField(controller, "thumbnailService", mock(ThumbnailService.class));
+        ReflectionTestUtils.setField(controller, "sendfileEnabled", true);
+        ReflectionTestUtils.setField(controller, "nonBlockingFallback", mode.equals("writeListener"));
+        ReflectionTestUtils.setField(controller, "sendfileMinBytes", 49152L);
+        ReflectionTestUtils.setField(controller, "asyncTimeoutMs", 60000L);
+
+        tomcat = new Tomcat();
+        tomcat.setBaseDir(baseDir.toString());
+        tomcat.setPort(0);
+        tomcat.getConnector().setProperty("useSendfile", String.valueOf(mode.equals("sendfile")));
+        Context context = tomcat.addContext("", null);
+        AnnotationConfigWebApplicationContext application = new AnnotationConfigWebApplicationContext();
+        application.register(WebConfig.class);
+        application.addBeanFactoryPostProcessor(beanFactory -> beanFactory.registerSingleton("fileController", controller));
+        Wrapper servlet = Tomcat.addServlet(context, "dispatcher", new DispatcherServlet(application));
+        servlet.setAsyncSupported(true);
+        context.addServletMappingDecoded("/", "dispatcher");
+        tomcat.start();
+
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        request = HttpRequest.newBuilder(URI.create("http://localhost:" + tomcat.getConnector().getLocalPort()
+                + "/api/files/image?path=image.jpg")).build();
+    }
+
+    @Setup(Level.Iteration)
+    public void startCpuMeasurement() {
+        bytesServed.set(0);
+        processCpuAtStart = os.getProcessCpuTime();
+        serverCpuAtStart = serverThreadsCpu();
+    }
+
+    /**
+     * CPU por GB servido na iteração: do processo inteiro (que inclui o cliente, no mesmo
+     * processo) e só das threads do conector do Tomcat, que é o custo do servidor. No
+     * Linux o tempo por thread inclui o de kernel, então o sendfile também é contado.
+     */
+    @TearDown(Level.Iteration)
+    public void reportCpuPerGigabyte() {
+        double gigabytes = bytesServed.get() / 1e9;
+        if (gigabytes == 0) {
+            return;
+        }
+        long processCpu = os.getProcessCpuTime() - processCpuAtStart;
+        long serverCpu = 0;
+        for (Map.Entry<Long, Long> thread : serverThreadsCpu().entrySet()) {
+            serverCpu += thread.getValue() - serverCpuAtStart.getOrDefault(thread.getKey(), 0L);
+        }
+        System.out.printf("%n%s: %.2f GB servidos, CPU do processo %.0f ms/GB, threads do Tomcat %.0f ms/GB%n",
+                mode, gigabytes, processCpu / 1e6 / gigabytes, serverCpu / 1e6 / gigabytes);
+    }
+
+    private Map<Long, Long> serverThreadsCpu() {
+        Map<Long, Long> cpu = new HashMap<>();
+        for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds())) {
+            if (info != null && info.getThreadName().startsWith("http-nio")) {
+                long time = threads.getThreadCpuTime(info.getThreadId());
+                if (time >= 0) {
+                    cpu.put(info.getThreadId(), time);
+                }
+            }
+        }
+        return cpu;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        tomcat.stop();
+        tomcat.destroy();
+        FileSystemUtils.deleteRecursively(baseDir);
+    }
+
+    @Benchmark
+    public int download() throws IOException, InterruptedException {
+        HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("Status inesperado: " + response.statusCode());
+        }
+        bytesServed.addAndGet(fileBytes);
+        return response.statusCode();
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        new Runner(new OptionsBuilder().parent(new CommandLineOptions(args))
+                .include(FileDownloadBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,128 @@
+package com.ptmd.security;
+
+import com.ptmd.entity.User;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.security.Keys;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Custo da autenticação JWT por requisição: o fluxo antigo (deriva a chave e verifica
+ * a assinatura duas vezes) contra {@link JwtTokenProvider#parseToken} com o token já
+ * em cache e com tokens sempre novos. Numa máquina de desenvolvimento o acerto no cache,
+ * SHA-256 incluído, ficou em torno de 0,6 µs, contra ~20 µs de uma verificação e ~40 µs
+ * do fluxo antigo; o token fora do cache paga o hash a mais sobre uma verificação, o que
+ * ficou dentro do ruído da medição.
+ *
+ * <pre>
+ * mvn -B test-compile
+ * mvn -B dependency:build-classpath -Dmdep.includeScope=test -Dmdep.outputFile=target/test.cp
+ * java -cp target/test-classes:target/classes:$(cat target/test.cp) com.ptmd.security.JwtAuthBenchmark
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JwtAuthBenchmark {
+
+    private static final String SECRET =
+            "PTMD-Secret-Key-2024-For-JWT-Token-Generation-Must-Be-Long-Enough-For-HS512-Algorithm";
+
+    // Mais tokens distintos do que cabem no cache de "miss", para nunca haver acerto
+    private static final int DISTINCT_TOKENS = 4096;
+
+    private JwtTokenProvider cached;
+    private JwtTokenProvider uncached;
+    private JwtParser parser;
+    private String token;
+    private String[] tokens;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        cached = provider(10000);
+        uncached = provider(1);
+        parser = Jwts.parser().verifyWith(Keys.hmacShaKeyFor(SECRET.getBytes(StandardCharsets.UTF_8))).build();
+        token = issue(cached, 1L);
+        tokens = new String[DISTINCT_TOKENS];
+        for (int i = 0; i < DISTINCT_TOKENS; i++) {
+            tokens[i] = issue(cached, i + 2L);
+        }
+        cached.parseToken(token);
+    }
+
+    /**
+     * O que o filtro fazia antes: validateToken seguido de getUsernameFromToken, cada um
+     * derivando a chave e montando um parser novo.
+     */
+    @Benchmark
+    public String legacyDoubleParse() {
+        Jwts.parser().verifyWith(Keys.hmacShaKeyFor(SECRET.getBytes(StandardCharsets.UTF_8))).build()
+                .parseSignedClaims(token);
+        return Jwts.parser().verifyWith(Keys.hmacShaKeyFor(SECRET.getBytes(StandardCharsets.UTF_8))).build()
+                .parseSignedClaims(token).getPayload().getSubject();
+    }
+
+    /**
+     * Uma única verificação com chave e parser prontos, sem cache: separa o ganho do
+     * parse único do ganho do cache (que ainda paga o SHA-256 do token a cada acerto).
+     */
+    @Benchmark
+    public Claims singleParse() {
+        return parser.parseSignedClaims(token).getPayload();
+    }
+
+    @Benchmark
+    public Claims parseTokenHit() {
+        return cached.parseToken(token);
+    }
+
+    @Benchmark
+    public Claims parseTokenMiss() {
+        String current = tokens[next];
+        next = (next + 1) % DISTINCT_TOKENS;
+        return uncached.parseToken(current);
+    }
+
+    private static JwtTokenProvider provider(int cacheMaxEntries) {
+        JwtTokenProvider provider = new JwtTokenProvider();
+        ReflectionTestUtils.setField(provider, "jwtSecret", SECRET);
+        ReflectionTestUtils.setField(provider, "jwtExpirationMs", 86400000L);
+        ReflectionTestUtils.setField(provider, "cacheMaxEntries", cacheMaxEntries);
+        provider.init();
+        return provider;
+    }
+
+    private static String issue(JwtTokenProvider provider, Long userId) {
+        UserPrincipal principal = new UserPrincipal(userId, "medico" + userId + "@ptmd.com", null, User.Role.MEDICO);
+        return provider.generateToken(new UsernamePasswordAuthenticationToken(principal, null));
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        new Runner(new OptionsBuilder().parent(new CommandLineOptions(args))
+                .include(JwtAuthBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,190 @@
+package com.ptmd.service;
+
+import com.ptmd.dto.ConsultationPageResponse;
+import com.ptmd.dto.ConsultationResponse;
+import com.ptmd.entity.Consultation;
+import com.ptmd.entity.Image;
+import com.ptmd.entity.Patient;
+import com.ptmd.entity.User;
+import com.ptmd.security.UserPrincipal;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Garante que a listagem de consultas do médico roda em um número fixo de consultas SQL
+ * (consultas + pacientes em uma, imagens em outra), independente do tamanho da página.
+ */
+@DataJpaTest(showSql = false, properties = {
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+@Import(ConsultationService.class)
+class ConsultationListQueryCountTest {
+
+    private static final int CONSULTATIONS = 6;
+    private static final int IMAGES_PER_CONSULTATION = 3;
+
+    @Autowired
+    private ConsultationService consultationService;
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @MockBean
+    private FileStorageService fileStorageService;
+
+    @MockBean
+    private AiService aiService;
+
+    @MockBean
+    private AiResultService aiResultService;
+
+    @MockBean
+    private InferenceQueueService inferenceQueueService;
+
+    @MockBean
+    private StatisticsService statisticsService;
+
+    @MockBean
+    private ThumbnailService thumbnailService;
+
+    private Statistics statistics;
+
+    @BeforeEach
+    void setUp() {
+        User medico = persistUser("medico@ptmd.test", "CRM-1");
+        User outroMedico = persistUser("outro@ptmd.test", "CRM-2");
+
+        for (int i = 0; i < CONSULTATIONS; i++) {
+            // Pacientes distintos: o N+1 antigo buscaria cada um separadamente
+            Patient patient = persistPatient("Paciente " + i, "0000000000" + i);
+            persistConsultation(patient, medico);
+        }
+        persistConsultation(persistPatient("Paciente de outro médico", "99999999999"), outroMedico);
+
+        entityManager.flush();
+        entityManager.clear();
+
+        UserPrincipal principal = new UserPrincipal(medico.getId(), medico.getEmail(), null, User.Role.MEDICO);
+        SecurityContextHolder.getContext().setAuthentication(
+                new UsernamePasswordAuthenticationToken(principal, null, principal.getAuthorities()));
+
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+    }
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void firstPageUsesTwoStatements() {
+        ConsultationPageResponse page = consultationService.getMyConsultations(null, null, null, 4);
+
+        assertThat(page.getContent()).hasSize(4);
+        assertThat(page.getHasMore()).isTrue();
+        assertThat(page.getContent()).allSatisfy(this::assertHydrated);
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(2);
+    }
+
+    @Test
+    void nextPageUsesTwoStatements() {
+        String cursor = consultationService.getMyConsultations(null, null, null, 4).getNextCursor();
+        statistics.clear();
+
+        ConsultationPageResponse page = consultationService.getMyConsultations(null, null, cursor, 4);
+
+        assertThat(page.getContent()).hasSize(CONSULTATIONS - 4);
+        assertThat(page.getHasMore()).isFalse();
+        assertThat(page.getContent()).allSatisfy(this::assertHydrated);
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(2);
+    }
+
+    @Test
+    void statementCountDoesNotGrowWithPageSize() {
+        consultationService.getMyConsultations(null, null, null, 1);
+        long small = statistics.getPrepareStatementCount();
+        statistics.clear();
+
+        consultationService.getMyConsultations(null, null, null, CONSULTATIONS);
+
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(small);
+    }
+
+    @Test
+    void emptyPageSkipsImageQuery() {
+        ConsultationPageResponse page = consultationService.getMyConsultations("inexistente", null, null, 4);
+
+        assertThat(page.getContent()).isEmpty();
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+    }
+
+    @Test
+    void listingDoesNotLoadEntities() {
+        consultationService.getMyConsultations(null, null, null, CONSULTATIONS);
+
+        assertThat(statistics.getEntityLoadCount()).isZero();
+    }
+
+    private void assertHydrated(ConsultationResponse consultation) {
+        assertThat(consultation.getPatient().getNome()).startsWith("Paciente ");
+        assertThat(consultation.getImages()).hasSize(IMAGES_PER_CONSULTATION);
+    }
+
+    private User persistUser(String email, String crm) {
+        User user = new User();
+        user.setEmail(email);
+        user.setPassword("hash");
+        user.setNome(email);
+        user.setCrm(crm);
+        user.setRole(User.Role.MEDICO);
+        return entityManager.persist(user);
+    }
+
+    private Patient persistPatient(String nome, String cpf) {
+        Patient patient = new Patient();
+        patient.setNome(nome);
+        patient.setCpf(cpf);
+        patient.setSexo(Patient.Sexo.OUTRO);
+        return entityManager.persist(patient);
+    }
+
+    private void persistConsultation(Patient patient, User medico) {
+        Consultation consultation = new Consultation();
+        consultation.setPatient(patient);
+        consultation.setMedico(medico);
+        consultation.setImages(new ArrayList<>());
+        entityManager.persist(consultation);
+
+        List<Image> images = consultation.getImages();
+        for (int i = 0; i < IMAGES_PER_CONSULTATION; i++) {
+            Image image = new Image();
+            image.setConsultation(consultation);
+            image.setFilePath("consultations/" + consultation.getId() + "/" + i + ".jpg");
+            image.setFileName(i + ".jpg");
+            image.setFileSize(1024L);
+            image.setContentType("image/jpeg");
+            images.add(entityManager.persist(image));
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.ptmd.service;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Ida e volta de uma predição pelo {@link AiService} contra um serviço de IA simulado,
+ * com a foto original ({@code original}, pré-processamento desligado) e com a imagem
+ * reduzida pelo {@link ImagePreprocessingService#prepare} ({@code resized}). O stub lê o
+ * corpo inteiro e decodifica o JPEG, como o Python faz antes de redimensionar; cada
+ * iteração imprime os bytes enviados por chamada. Com um JPEG sintético de 4032x3024
+ * (~5,4 MB) numa máquina de 1 CPU e rede local, a original levou ~460 ms por predição com
+ * ~5,4 MB na rede, e a reduzida ~350 ms com ~21 KB. A redução ainda decodifica a original
+ * (com subamostragem) no backend; o ganho de rede cresce com um link mais lento que o loopback.
+ *
+ * <pre>
+ * java -cp ... com.ptmd.service.ImagePreprocessingBenchmark -p width=4032 -p height=3024
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ImagePreprocessingBenchmark {
+
+    private static final byte[] RESPONSE =
+            "{\"predictions\":[{\"Class\":\"Normal\",\"Probabilidade\":0.9}]}".getBytes(StandardCharsets.UTF_8);
+
+    @Param({"original", "resized"})
+    private String mode;
+
+    @Param("4032")
+    private int width;
+
+    @Param("3024")
+    private int height;
+
+    private Path file;
+    private Resource image;
+    private HttpServer server;
+    private AiService aiService;
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong calls = new AtomicLong();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("ptmd-preprocess-bench", ".jpg");
+        Files.write(file, syntheticPhoto(width, height));
+        image = new FileSystemResource(file);
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newFixedThreadPool(2));
+        server.createContext("/predict", exchange -> {
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            bytesReceived.addAndGet(body.length);
+            calls.incrementAndGet();
+            ImageIO.read(new ByteArrayInputStream(body, jpegStart(body), body.length));
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, RESPONSE.length);
+            exchange.getResponseBody().write(RESPONSE);
+            exchange.close();
+        });
+        server.start();
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ImagePreprocessingService preprocessing = new ImagePreprocessingService();
+        ReflectionTestUtils.setField(preprocessing, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(preprocessing, "enabled", mode.equals("resized"));
+        ReflectionTestUtils.setField(preprocessing, "modelInputSize", 224);
+        ReflectionTestUtils.setField(preprocessing, "jpegQuality", 0.9f);
+        preprocessing.init();
+
+        PredictionCacheService cache = mock(PredictionCacheService.class, withSettings().stubOnly());
+        when(cache.isEnabled()).thenReturn(false);
+
+        aiService = new AiService();
+        ReflectionTestUtils.setField(aiService, "predictionCacheService", cache);
+        ReflectionTestUtils.setField(aiService, "imagePreprocessingService", preprocessing);
+        ReflectionTestUtils.setField(aiService, "meterRegistry", meterRegistry);
+        ReflectionTestUtils.setField(aiService, "aiServiceUrls",
+                List.of("http://127.0.0.1:" + server.getAddress().getPort()));
+        ReflectionTestUtils.setField(aiService, "ejectionFailureThreshold", 3);
+        ReflectionTestUtils.setField(aiService, "ejectionDurationMs", 30000L);
+        ReflectionTestUtils.setField(aiService, "hedgingEnabled", false);
+        ReflectionTestUtils.setField(aiService, "hedgingMinDelayMs", 50L);
+        ReflectionTestUtils.setField(aiService, "maxInFlight", 16);
+        ReflectionTestUtils.setField(aiService, "limiterInitialLimit", 8);
+        ReflectionTestUtils.setField(aiService, "limiterMinLimit", 1);
+        ReflectionTestUtils.setField(aiService, "limiterLatencyThresholdMs", 5000L);
+        ReflectionTestUtils.setField(aiService, "limiterBackoffRatio", 0.9);
+        ReflectionTestUtils.setField(aiService, "bulkheadMaxWaitMs", 30000L);
+        ReflectionTestUtils.setField(aiService, "breakerFailureRateThreshold", 50f);
+        ReflectionTestUtils.setField(aiService, "breakerSlowCallDurationMs", 10000L);
+        ReflectionTestUtils.setField(aiService, "breakerSlowCallRateThreshold", 80f);
+        ReflectionTestUtils.setField(aiService, "breakerSlidingWindowSize", 20);
+        ReflectionTestUtils.setField(aiService, "breakerMinimumCalls", 10);
+        ReflectionTestUtils.setField(aiService, "breakerWaitInOpenMs", 30000L);
+        ReflectionTestUtils.setField(aiService, "batchEnabled", false);
+        aiService.init();
+    }
+
+    @Setup(Level.Iteration)
+    public void resetCounters() {
+        bytesReceived.set(0);
+        calls.set(0);
+    }
+
+    @TearDown(Level.Iteration)
+    public void reportBytes() {
+        if (calls.get() > 0) {
+            System.out.printf("%n%s: %d bytes por chamada (arquivo original: %d bytes)%n",
+                    mode, bytesReceived.get() / calls.get(), file.toFile().length());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        aiService.shutdown();
+        server.stop(0);
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public Object predict() {
+        return aiService.predictAsync(image, "image/jpeg").block();
+    }
+
+    /**
+     * Foto sintética: gradientes suaves com ruído, para o JPEG ficar com o tamanho de uma
+     * foto de câmera (vários MB) e não de uma imagem lisa.
+     */
+    private static byte[] syntheticPhoto(int width, int height) throws IOException {
+        BufferedImage photo = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(42);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = clamp(x * 255 / width + random.nextInt(48) - 24);
+                int g = clamp(y * 255 / height + random.nextInt(48) - 24);
+                int b = clamp((x + y) * 255 / (width + height) + random.nextInt(48) - 24);
+                photo.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        return ImageCodec.encodeJpeg(photo, 0.92f);
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+
+    // Início do JPEG (marcador SOI) dentro do corpo multipart
+    private static int jpegStart(byte[] body) {
+        for (int i = 0; i + 1 < body.length; i++) {
+            if ((body[i] & 0xFF) == 0xFF && (body[i + 1] & 0xFF) == 0xD8) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        new Runner(new OptionsBuilder().parent(new CommandLineOptions(args))
+                .include(ImagePreprocessingBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -144,6 +144,43 @@ const AdminDashboard = () => {
             </CardContent>
           </Card>
         </Grid>
+        <Grid item xs={12} md={4}>
+          <Card>
+            <CardContent>
+              <Box display="flex" alignItems="center" mb={2}>
+                <DashboardIcon color="primary" sx={{ mr: 1 }} />
+                <Typography variant="h6">Imagens Confirmadas</Typography>
+              </Box>
+              <Typography variant="h3">{dashboard?.confirmedImages || 0}</Typography>
+            </CardContent>
+          </Card>
+        </Grid>
+        <Grid item xs={12} md={4}>
+          <Card>
+            <CardContent>
+              <Box display="flex" alignItems="center" mb={2}>
+                <DashboardIcon color="primary" sx={{ mr: 1 }} />
+                <Typography variant="h6">Imagens Pendentes</Typography>
+              </Box>
+              <Typography variant="h3">{dashboard?.pendingImages || 0}</Typography>
+            </CardContent>
+          </Card>
+        </Grid>
+        <Grid item xs={12} md={4}>
+          <Card>
+            <CardContent>
+              <Box display="flex" alignItems="center" mb={2}>
+                <DashboardIcon color="primary" sx={{ mr: 1 }} />
+                <Typography variant="h6">Confirmadas por Diagnóstico</Typography>
+              </Box>
+              {Object.entries(dashboard?.imagesByDiagnosis || {}).map(([diagnosis, count]) => (
+                <Typography key={diagnosis}>
+                  {diagnosis}: {count}
+                </Typography>
+              ))}
+            </CardContent>
+          </Card>
+        </Grid>
       </Grid>
 
       <Box sx={{ mt: 4 }}>
@@ -53,6 +53,10 @@ const MedicoDashboard = () => {
   const [selectedConsultation, setSelectedConsultation] = useState<ConsultationResponse | null>(null)
   const [filterNome, setFilterNome] = useState('')
   const [filterCpf, setFilterCpf] = useState('')
+  const [nextCursor, setNextCursor] = useState<string | undefined>(undefined)
+  // Filtros da busca que gerou o nextCursor; "Carregar mais" continua essa busca,
+  // mesmo que os campos de filtro tenham sido editados sem aplicar
+  const [appliedFilters, setAppliedFilters] = useState<{ nome?: string; cpf?: string }>({})
   const [formData, setFormData] = useState({
     patientNome: '',
     patientCpf: '',
@@ -66,15 +70,23 @@ const MedicoDashboard = () => {
     loadConsultations()
   }, [])
 
-  const loadConsultations = async (nome?: string, cpf?: string) => {
+  const loadConsultations = async (nome?: string, cpf?: string, cursor?: string) => {
     try {
-      const data = await consultationService.getMyConsultations(nome, cpf)
-      setConsultations(data)
+      const page = await consultationService.getMyConsultations(nome, cpf, cursor)
+      setConsultations(cursor ? [...consultations, ...page.content] : page.content)
+      setNextCursor(page.hasMore ? page.nextCursor : undefined)
+      if (!cursor) {
+        setAppliedFilters({ nome, cpf })
+      }
     } catch (err: any) {
       setError('Erro ao carregar consultas')
     }
   }
 
+  const handleLoadMore = () => {
+    loadConsultations(appliedFilters.nome, appliedFilters.cpf, nextCursor)
+  }
+
   const handleFilter = () => {
     loadConsultations(
       filterNome.trim() || undefined,
@@ -193,6 +205,14 @@ const MedicoDashboard = () => {
     return `${baseUrl}/api/files/by-name/${encodeURIComponent(filename)}`
   }
 
+  // Miniatura de 480px (maior lado) para os cards; a imagem completa fica como fallback
+  const getThumbnailUrl = (filePath: string) => {
+    if (!filePath) return ''
+    const filename = filePath.split(/[/\\]/).pop() || filePath
+    const baseUrl = import.meta.env.VITE_API_URL || 'http://localhost:8080'
+    return `${baseUrl}/api/files/thumbnails/480/${encodeURIComponent(filename)}`
+  }
+
   return (
     <Box>
       <Box display="flex" justifyContent="space-between" alignItems="center" mb={3}>
@@ -316,6 +336,14 @@ const MedicoDashboard = () => {
         </Table>
       </TableContainer>
 
+      {nextCursor && (
+        <Box sx={{ display: 'flex', justifyContent: 'center', mt: 2 }}>
+          <Button variant="outlined" onClick={handleLoadMore}>
+            Carregar mais
+          </Button>
+        </Box>
+      )}
+
       {/* Dialog Nova Consulta */}
       <Dialog
         open={newConsultationOpen}
@@ -515,10 +543,15 @@ const MedicoDashboard = () => {
                           <CardMedia
                             component="img"
                             height="200"
-                            image={getImageUrl(image.filePath)}
+                            image={getThumbnailUrl(image.filePath)}
                             alt={image.fileName}
                             sx={{ objectFit: 'contain', bgcolor: 'grey.100' }}
                             onError={(e: any) => {
+                              if (!e.target.dataset.fallback) {
+                                e.target.dataset.fallback = 'original'
+                                e.target.src = getImageUrl(image.filePath)
+                                return
+                              }
                               e.target.src = 'data:image/svg+xml;base64,PHN2ZyB3aWR0aD0iMjAwIiBoZWlnaHQ9IjIwMCIgeG1sbnM9Imh0dHA6Ly93d3cudzMub3JnLzIwMDAvc3ZnIj48cmVjdCB3aWR0aD0iMjAwIiBoZWlnaHQ9IjIwMCIgZmlsbD0iI2RkZCIvPjx0ZXh0IHg9IjUwJSIgeT0iNTAlIiBmb250LWZhbWlseT0iQXJpYWwiIGZvbnQtc2l6ZT0iMTQiIGZpbGw9IiM5OTkiIHRleHQtYW5jaG9yPSJtaWRkbGUiIGR5PSIuM2VtIj5JbWFnZW0gbsOjbyBjYXJyZWdhZGE8L3RleHQ+PC9zdmc+'
                             }}
                           />
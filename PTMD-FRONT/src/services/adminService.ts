@@ -1,9 +1,20 @@
 import api from './api'
 
+export interface DailyVolume {
+  date: string
+  images: number
+  consultations: number
+}
+
 export interface DashboardResponse {
   totalImages: number
   totalConsultations: number
   totalPatients: number
+  confirmedImages: number
+  pendingImages: number
+  confirmedConsultations: number
+  imagesByDiagnosis: Record<string, number>
+  dailyVolumes: DailyVolume[]
 }
 
 export interface ChangePasswordRequest {
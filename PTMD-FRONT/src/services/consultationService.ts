@@ -47,6 +47,12 @@ export interface ConsultationResponse {
   createdAt: string
 }
 
+export interface ConsultationPageResponse {
+  content: ConsultationResponse[]
+  nextCursor?: string
+  hasMore: boolean
+}
+
 export interface ConfirmDiagnosisRequest {
   finalDiagnosis: Diagnosis
 }
@@ -100,13 +106,18 @@ export const consultationService = {
     return response.data
   },
 
-  getMyConsultations: async (nome?: string, cpf?: string): Promise<ConsultationResponse[]> => {
+  getMyConsultations: async (
+    nome?: string,
+    cpf?: string,
+    cursor?: string
+  ): Promise<ConsultationPageResponse> => {
     const params = new URLSearchParams()
     if (nome) params.append('nome', nome)
     if (cpf) params.append('cpf', cpf)
+    if (cursor) params.append('cursor', cursor)
     
     const url = `/medico/consultations${params.toString() ? '?' + params.toString() : ''}`
-    const response = await api.get<ConsultationResponse[]>(url)
+    const response = await api.get<ConsultationPageResponse>(url)
     return response.data
   },
 